@@ -1,11 +1,15 @@
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Represents Assembly language for HAck platform
  */
 public class ASM {
-    private static final String effectiveAddressRegister = "R13";
+    private static final String savedValueRegister = "R13";
+    // largest indexes for which an A=A+1 chain is shorter than adding the index
+    private static final int maxChainedLoadIndex = 1;
+    private static final int maxChainedPopIndex = 2;
+    private static final int maxChainedStoreIndex = 6;
     private static final int tempBaseAddress = 5;
 
     /**
@@ -50,6 +54,15 @@ public class ASM {
         return "A=D";
     }
 
+    /**
+     * Returns assembly code for moving bitwise negation of A-register to D-register
+     *
+     * @return assembly code for moving bitwise negation of A-register to D-register
+     */
+    public static String moveNotAToD() {
+        return "D=!A";
+    }
+
 
     /**
      * Returns assembly code for ADD operation of A-register from D-register.
@@ -118,14 +131,15 @@ public class ASM {
     /**
      * Returns assembly code for setting true or false in D-register in case of matching the given condition
      * True is represented as -1, false as 0.
+     * Labels "labelName$TRUE" and "labelName$END" are injected, so given label name must be unique.
      *
      * @param condition
+     * @param labelName
      * @return assembly code for setting true or false in D-register in case of matching the given condition
      */
-    public static String setDTrueFalseIf(String condition) {
-        int random = new Random().nextInt((int) (Math.pow(2, 16) + 1));
-        String labelNameTRUE = "TRUE$" + random;
-        String labelNameEND = "END$" + random;
+    public static String setDTrueFalseIf(String condition, String labelName) {
+        String labelNameTRUE = labelName + "$TRUE";
+        String labelNameEND = labelName + "$END";
         List<String> result = List.of(
                 "@" + labelNameTRUE,
                 "D;J" + condition.toUpperCase(),
@@ -348,6 +362,55 @@ public class ASM {
         return String.join(System.lineSeparator(), result);
     }
 
+    /**
+     * Returns assembly code for pushing the result of given computation, which doesn't depend on memory,
+     * e.g. 0, 1, -1 or D. The stack top is written directly, without changing D-register.
+     *
+     * @param computation
+     * @return assembly code for pushing the result of given computation
+     */
+    public static String pushComputation(String computation) {
+        List<String> result = List.of(
+                moveValueToA("SP"),
+                "AM=M+1",
+                "A=A-1",
+                "M=" + computation
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for replacing the stack top in place with the result of given computation on it,
+     * e.g. "-M" or "!M". SP is unchanged.
+     *
+     * @param computation computation of the new stack top from the stack top in M
+     * @return assembly code for replacing the stack top in place
+     */
+    public static String computeStackTop(String computation) {
+        List<String> result = List.of(
+                moveValueToA("SP"),
+                "A=M-1",
+                "M=" + computation
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for popping the stack top y to D-register and replacing the new stack top x in place
+     * with the result of given computation on both, e.g. "D+M" or "M-D". SP is decremented.
+     *
+     * @param computation computation of the new stack top from x in M and y in D
+     * @return assembly code for replacing the two topmost values with the result of given computation
+     */
+    public static String computeStackTopPair(String computation) {
+        List<String> result = List.of(
+                loadPreDecrementedToD("SP"),
+                "A=A-1",
+                "M=" + computation
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
     /**
      * Returns assembly code for push operation from given referenced base and index to SP referenced address.
      * SP is incremented.
@@ -356,10 +419,9 @@ public class ASM {
      * @param index
      * @return assembly code for push operation from given referenced base and index to SP referenced address.
      */
-    public static String pushFromPointedSegment(String reference, String index) {
+    public static String pushFromPointedSegment(String reference, int index) {
         List<String> result = List.of(
-                storeEffectiveAddress(reference, index),
-                ASM.loadDereferenceToD(effectiveAddressRegister),
+                loadFromPointedSegmentToD(reference, index),
                 ASM.pushD()
         );
         return String.join(System.lineSeparator(), result);
@@ -368,37 +430,113 @@ public class ASM {
     /**
      * Returns assembly code for pop operation from SP referenced address to given referenced base and index.
      * SP is decremented.
+     * For small indexes the address is reached by incrementing A-register, otherwise the popped value is added
+     * to the address in D-register, so that both can be told apart again without a temporary register.
      *
      * @param reference
      * @param index
      * @return assembly code for pop operation from SP referenced address to given referenced base and index.
      */
-    public static String popToPointedSegment(String reference, String index) {
+    public static String popToPointedSegment(String reference, int index) {
+        if (index <= maxChainedPopIndex) {
+            List<String> result = List.of(
+                    loadPreDecrementedToD("SP"),
+                    loadPointedAddressToA(reference, index),
+                    "M=D"
+            );
+            return String.join(System.lineSeparator(), result);
+        }
         List<String> result = List.of(
-                storeEffectiveAddress(reference, index),
-                ASM.popD(),
-                ASM.storeDToDereference(effectiveAddressRegister)
+                ASM.loadMemoryToD(reference),
+                ASM.moveValueToA(String.valueOf(index)),
+                ASM.addAToD(),
+                // D = address + value
+                moveValueToA("SP"),
+                "AM=M-1",
+                "D=D+M",
+                // A = address, M = value
+                "A=D-M",
+                "M=D-A"
         );
         return String.join(System.lineSeparator(), result);
     }
 
     /**
-     * Returns assembly code for storing effective address from given base address and index.
+     * Returns assembly code for loading data from given referenced base and index to D-register
      *
-     * @param address
+     * @param reference
      * @param index
-     * @return assembly code for storing effective address from given base address and index.
-     */
-    private static String storeEffectiveAddress(String address, String index) {
+     * @return assembly code for loading data from given referenced base and index to D-register
+     */
+    public static String loadFromPointedSegmentToD(String reference, int index) {
+        if (index <= maxChainedLoadIndex) {
+            List<String> result = List.of(
+                    loadPointedAddressToA(reference, index),
+                    "D=M"
+            );
+            return String.join(System.lineSeparator(), result);
+        }
         List<String> result = List.of(
-                ASM.loadMemoryToD(address),
-                ASM.moveValueToA(index),
+                ASM.loadMemoryToD(reference),
+                ASM.moveValueToA(String.valueOf(index)),
+                "A=D+A",
+                "D=M"
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for storing data from D-register to given referenced base and index.
+     * For large indexes D-register is saved and added to the address, as in popToPointedSegment.
+     *
+     * @param reference
+     * @param index
+     * @return assembly code for storing data from D-register to given referenced base and index
+     */
+    public static String storeDToPointedSegment(String reference, int index) {
+        if (index <= maxChainedStoreIndex) {
+            List<String> result = List.of(
+                    loadPointedAddressToA(reference, index),
+                    "M=D"
+            );
+            return String.join(System.lineSeparator(), result);
+        }
+        List<String> result = List.of(
+                ASM.storeDToMemory(savedValueRegister),
+                // D = value + address
+                moveValueToA(reference),
+                "D=D+M",
+                ASM.moveValueToA(String.valueOf(index)),
                 ASM.addAToD(),
-                ASM.storeDToMemory(effectiveAddressRegister)
+                // A = address, M = value
+                moveValueToA(savedValueRegister),
+                "A=D-M",
+                "M=D-A"
         );
         return String.join(System.lineSeparator(), result);
     }
 
+    /**
+     * Returns assembly code for loading the address of given referenced base and small index to A-register
+     * by incrementing it index times
+     *
+     * @param reference
+     * @param index
+     * @return assembly code for loading the address of given referenced base and index to A-register
+     */
+    private static String loadPointedAddressToA(String reference, int index) {
+        if (index == 0) {
+            return loadMemoryToA(reference);
+        }
+        List<String> result = new ArrayList<>();
+        result.add(moveValueToA(reference));
+        result.add("A=M+1");
+        for (int i = 1; i < index; i++) {
+            result.add("A=A+1");
+        }
+        return String.join(System.lineSeparator(), result);
+    }
+
     /**
      * Returns assembly code for push operation from given memory address to SP referenced address.
      * SP is incremented.
@@ -429,6 +567,16 @@ public class ASM {
         return String.join(System.lineSeparator(), result);
     }
 
+    /**
+     * Returns the address of given temp segment index
+     *
+     * @param index
+     * @return the address of given temp segment index
+     */
+    public static String tempAddress(int index) {
+        return String.valueOf(tempBaseAddress + index);
+    }
+
     /**
      * Returns assembly code for push operation from temp segment base address plus index to SP referenced address.
      * SP is incremented.
@@ -436,8 +584,8 @@ public class ASM {
      * @param index
      * @return assembly code for push operation from temp segment base address plus index to SP referenced address.
      */
-    public static String pushFromTempSegment(String index) {
-        String address = String.valueOf(tempBaseAddress + Integer.parseInt(index));
+    public static String pushFromTempSegment(int index) {
+        String address = tempAddress(index);
         List<String> result = List.of(
                 ASM.loadMemoryToD(address),
                 ASM.pushD()
@@ -452,8 +600,8 @@ public class ASM {
      * @param index
      * @return assembly code for pop operation from SP referenced address to temp segment base address plus index.
      */
-    public static String popToTempSegment(String index) {
-        String address = String.valueOf(tempBaseAddress + Integer.parseInt(index));
+    public static String popToTempSegment(int index) {
+        String address = tempAddress(index);
         List<String> result = List.of(
                 ASM.popD(),
                 ASM.storeDToMemory(address)
@@ -461,6 +609,52 @@ public class ASM {
         return String.join(System.lineSeparator(), result);
     }
 
+    /**
+     * Returns assembly code for incrementing the pointer at given reference
+     * and storing data from D-register to the new pointed address
+     *
+     * @param reference
+     * @return assembly code for incrementing the pointer and storing data from D-register to the pointed address
+     */
+    public static String storeDToPreIncremented(String reference) {
+        List<String> result = List.of(
+                moveValueToA(reference),
+                "AM=M+1",
+                "M=D"
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for decrementing the pointer at given reference
+     * and loading data from the new pointed address to D-register
+     *
+     * @param reference
+     * @return assembly code for decrementing the pointer and loading data from the pointed address to D-register
+     */
+    public static String loadPreDecrementedToD(String reference) {
+        List<String> result = List.of(
+                moveValueToA(reference),
+                "AM=M-1",
+                "D=M"
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for jump to address stored in given memory address
+     *
+     * @param address
+     * @return assembly code for jump to address stored in given memory address
+     */
+    public static String jumpToDereference(String address) {
+        List<String> result = List.of(
+                loadMemoryToA(address),
+                jmp()
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
     /**
      * Returns assembly code for incrementing memory value at given address by 1
      *
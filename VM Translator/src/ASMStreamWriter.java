@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * Represents a writer of assembly code passed one piece at a time, optionally through the peephole optimizer.
+ * Lines are separated by "\n", with no trailing line separator, as done by a whole file translation.
+ */
+public class ASMStreamWriter implements Consumer<String> {
+    private final Writer writer;
+    private final PeepholeOptimizer optimizer;
+    private final Consumer<String> lineObserver;
+    private boolean firstLine = true;
+
+    /**
+     * Creates a writer of assembly code to given writer
+     *
+     * @param writer
+     * @param optimizer peephole optimizer the code goes through, or null if not optimized
+     */
+    public ASMStreamWriter(Writer writer, PeepholeOptimizer optimizer) {
+        this(writer, optimizer, null);
+    }
+
+    /**
+     * Creates a writer of assembly code to given writer, passing each written line to given observer as well
+     *
+     * @param writer
+     * @param optimizer    peephole optimizer the code goes through, or null if not optimized
+     * @param lineObserver consumer of each written line, or null
+     */
+    public ASMStreamWriter(Writer writer, PeepholeOptimizer optimizer, Consumer<String> lineObserver) {
+        this.writer = writer;
+        this.optimizer = optimizer;
+        this.lineObserver = lineObserver;
+    }
+
+    /**
+     * Writes given assembly code, which may contain several lines
+     *
+     * @param asmCode
+     */
+    @Override
+    public void accept(String asmCode) {
+        if (optimizer != null) {
+            optimizer.feed(asmCode, this::writeLine);
+        } else {
+            writeLine(asmCode);
+        }
+    }
+
+    /**
+     * Writes the code held by the optimizer and flushes the underlying writer
+     */
+    public void finish() {
+        if (optimizer != null) {
+            optimizer.flush(this::writeLine);
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes given line preceded by a line separator, unless it's the first one
+     *
+     * @param line
+     */
+    private void writeLine(String line) {
+        try {
+            if (!firstLine) {
+                writer.write("\n");
+            }
+            writer.write(line);
+            firstLine = false;
+            if (lineObserver != null) {
+                lineObserver.accept(line);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,11 +1,23 @@
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents assembly writer
  */
 public class ASMWriter {
-    private static int callCounter = 1;
+    private static final String callRoutineLabel = "$CALL$";
+    private static final String returnRoutineLabel = "$RETURN$";
+    private static final String pushHelperLabel = "$PUSH$";
+    private static final String popHelperLabel = "$POP$";
+    private static final String trueHelperLabel = "$TRUE$";
+    private static final String falseHelperLabel = "$FALSE$";
+    private static final List<String> pointedSegments = List.of("LCL", "ARG", "THIS", "THAT");
+    private static final List<String> comparisons = List.of("EQ", "GT", "LT");
+    private static final String bootstrapReturnLabel = "$BOOTSTRAP$ret";
 
     /**
      * Returns assembly code for PUSH a value to the stack
@@ -13,8 +25,30 @@ public class ASMWriter {
      * @param value
      * @return assembly code for PUSH a value to the stack
      */
-    public static String pushValue(String value) {
-        return ASM.pushValue(value);
+    public static String pushValue(int value) {
+        return ASM.pushValue(String.valueOf(value));
+    }
+
+    /**
+     * Returns assembly code for PUSH of a constant with the shortest sequence for it:
+     * 0, 1 and -1 are stored directly to the stack top, negative values are loaded as negation of a positive one
+     *
+     * @param value 16-bit value
+     * @return assembly code for PUSH of a constant
+     */
+    public static String pushConstant(int value) {
+        if (value >= -1 && value <= 1) {
+            return ASM.pushComputation(String.valueOf(value));
+        }
+        if (value >= 0) {
+            return pushValue(value);
+        }
+        List<String> result = List.of(
+                ASM.moveValueToA(String.valueOf(~value)),
+                ASM.moveNotAToD(),
+                ASM.pushD()
+        );
+        return String.join(System.lineSeparator(), result);
     }
 
     /**
@@ -23,7 +57,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for PUSH from LOCAL segment index
      */
-    public static String pushLocal(String index) {
+    public static String pushLocal(int index) {
         return ASM.pushFromPointedSegment("LCL", index);
     }
 
@@ -33,7 +67,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for POP to LOCAL segment index
      */
-    public static String popLocal(String index) {
+    public static String popLocal(int index) {
         return ASM.popToPointedSegment("LCL", index);
     }
 
@@ -43,7 +77,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for PUSH from ARGUMENT segment index
      */
-    public static String pushArgument(String index) {
+    public static String pushArgument(int index) {
         return ASM.pushFromPointedSegment("ARG", index);
     }
 
@@ -53,7 +87,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for POP to ARGUMENT segment index
      */
-    public static String popArgument(String index) {
+    public static String popArgument(int index) {
         return ASM.popToPointedSegment("ARG", index);
     }
 
@@ -63,7 +97,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for PUSH from THIS segment index
      */
-    public static String pushThis(String index) {
+    public static String pushThis(int index) {
         return ASM.pushFromPointedSegment("THIS", index);
     }
 
@@ -73,7 +107,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for POP to THIS segment index
      */
-    public static String popThis(String index) {
+    public static String popThis(int index) {
         return ASM.popToPointedSegment("THIS", index);
     }
 
@@ -83,7 +117,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for PUSH from THAT segment index
      */
-    public static String pushThat(String index) {
+    public static String pushThat(int index) {
         return ASM.pushFromPointedSegment("THAT", index);
     }
 
@@ -93,7 +127,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for POP to THAT segment index
      */
-    public static String popThat(String index) {
+    public static String popThat(int index) {
         return ASM.popToPointedSegment("THAT", index);
     }
 
@@ -103,7 +137,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for PUSH from TEMP segment index
      */
-    public static String pushTemp(String index) {
+    public static String pushTemp(int index) {
         return ASM.pushFromTempSegment(index);
     }
 
@@ -113,7 +147,7 @@ public class ASMWriter {
      * @param index
      * @return assembly code for POP to TEMP segment index
      */
-    public static String popTemp(String index) {
+    public static String popTemp(int index) {
         return ASM.popToTempSegment(index);
     }
 
@@ -147,8 +181,8 @@ public class ASMWriter {
      * @return assembly code for PUSH from argument segment index
      */
 
-    public static String pushPointer(String index) {
-        String register = index.equals("0") ? "THIS" : "THAT";
+    public static String pushPointer(int index) {
+        String register = index == 0 ? "THIS" : "THAT";
         return ASM.pushFromMemory(register);
     }
 
@@ -160,146 +194,110 @@ public class ASMWriter {
      * @param index
      * @return assembly code for POP argument segment index
      */
-    public static String popPointer(String index) {
-        String register = index.equals("0") ? "THIS" : "THAT";
+    public static String popPointer(int index) {
+        String register = index == 0 ? "THIS" : "THAT";
         return ASM.popToMemory(register);
     }
 
     /**
-     * Returns assembly code for VM command ADD
+     * Returns assembly code for VM command ADD, computed in place on the stack
      *
      * @return assembly code for VM command ADD
      */
     public static String add() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.popA(),
-                ASM.addAToD(),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+        return ASM.computeStackTopPair("D+M");
     }
 
     /**
-     * Returns assembly code for VM command SUB
+     * Returns assembly code for VM command SUB, computed in place on the stack
      *
      * @return assembly code for VM command SUB
      */
     public static String sub() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.popA(),
-                ASM.subAFromD(),
-                ASM.negD(),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+        return ASM.computeStackTopPair("M-D");
     }
 
     /**
-     * Returns assembly code for VM command NEG
+     * Returns assembly code for VM command NEG, computed in place on the stack
      *
      * @return assembly code for VM command NEG
      */
     public static String neg() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.negD(),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+        return ASM.computeStackTop("-M");
     }
 
     /**
-     * Returns assembly code for VM command NOT
+     * Returns assembly code for VM command NOT, computed in place on the stack
      *
      * @return assembly code for VM command NOT
      */
     public static String not() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.notD(),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+        return ASM.computeStackTop("!M");
     }
 
     /**
-     * Returns assembly code for VM command AND
+     * Returns assembly code for VM command AND, computed in place on the stack
      *
      * @return assembly code for VM command AND
      */
     public static String and() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.popA(),
-                ASM.andAD(),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+        return ASM.computeStackTopPair("D&M");
     }
 
     /**
-     * Returns assembly code for VM command OR
+     * Returns assembly code for VM command OR, computed in place on the stack
      *
      * @return assembly code for VM command OR
      */
     public static String or() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.popA(),
-                ASM.orAD(),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+        return ASM.computeStackTopPair("D|M");
     }
 
     /**
      * Returns assembly code for VM command LT
      *
+     * @param labelName unique name of the injected labels
      * @return assembly code for VM command LT
      */
-    public static String lt() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.popA(),
-                ASM.subAFromD(),
-                ASM.negD(),
-                ASM.setDTrueFalseIf("LT"),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+    public static String lt(String labelName) {
+        return compare("LT", labelName);
     }
 
     /**
      * Returns assembly code for VM command GT
      *
+     * @param labelName unique name of the injected labels
      * @return assembly code for VM command GT
      */
-    public static String gt() {
-        List<String> result = List.of(
-                ASM.popD(),
-                ASM.popA(),
-                ASM.subAFromD(),
-                ASM.negD(),
-                ASM.setDTrueFalseIf("GT"),
-                ASM.pushD()
-        );
-        return String.join(System.lineSeparator(), result);
+    public static String gt(String labelName) {
+        return compare("GT", labelName);
     }
 
     /**
      * Returns assembly code for VM command EQ
      *
+     * @param labelName unique name of the injected labels
      * @return assembly code for VM command EQ
      */
-    public static String eq() {
+    public static String eq(String labelName) {
+        return compare("EQ", labelName);
+    }
+
+    /**
+     * Returns assembly code for a comparison VM command: x - y is computed to D-register from the two topmost values,
+     * and the new stack top x is replaced in place with true (-1) or false (0)
+     *
+     * @param condition EQ, GT or LT
+     * @param labelName unique name of the injected labels
+     * @return assembly code for a comparison VM command
+     */
+    private static String compare(String condition, String labelName) {
         List<String> result = List.of(
-                ASM.popD(),
-                ASM.popA(),
-                ASM.subAFromD(),
-                ASM.setDTrueFalseIf("EQ"),
-                ASM.pushD()
+                ASM.loadPreDecrementedToD("SP"),
+                "A=A-1",
+                "D=M-D",
+                ASM.setDTrueFalseIf(condition, labelName),
+                ASM.computeStackTop("D")
         );
         return String.join(System.lineSeparator(), result);
     }
@@ -341,36 +339,216 @@ public class ASMWriter {
     }
 
     /**
-     * Returns assembly code for VM command FUNCTION
+     * Returns assembly code for storing the stack top held in D-register to the stack
+     *
+     * @return assembly code for storing the stack top held in D-register to the stack
+     */
+    public static String flushStackTop() {
+        return ASM.pushComputation("D");
+    }
+
+    /**
+     * Returns assembly code for popping the stack top to D-register, so that D-register holds it
+     *
+     * @return assembly code for popping the stack top to D-register
+     */
+    public static String loadStackTopToD() {
+        return ASM.loadPreDecrementedToD("SP");
+    }
+
+    /**
+     * Returns assembly code for loading a constant to D-register with the shortest sequence for it
+     *
+     * @param value 16-bit value
+     * @return assembly code for loading a constant to D-register
+     */
+    public static String loadConstantToD(int value) {
+        if (value >= -1 && value <= 1) {
+            return "D=" + value;
+        }
+        if (value >= 0) {
+            return ASM.moveValueToD(String.valueOf(value));
+        }
+        List<String> result = List.of(
+                ASM.moveValueToA(String.valueOf(~value)),
+                ASM.moveNotAToD()
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for loading given index of the segment based at given pointer to D-register
+     *
+     * @param pointer LCL, ARG, THIS or THAT
+     * @param index
+     * @return assembly code for loading given segment index to D-register
+     */
+    public static String loadPointedToD(String pointer, int index) {
+        return ASM.loadFromPointedSegmentToD(pointer, index);
+    }
+
+    /**
+     * Returns assembly code for storing D-register to given index of the segment based at given pointer
+     *
+     * @param pointer LCL, ARG, THIS or THAT
+     * @param index
+     * @return assembly code for storing D-register to given segment index
+     */
+    public static String storeDToPointed(String pointer, int index) {
+        return ASM.storeDToPointedSegment(pointer, index);
+    }
+
+    /**
+     * Returns assembly code for loading given address, e.g. a static variable, to D-register
+     *
+     * @param address
+     * @return assembly code for loading given address to D-register
+     */
+    public static String loadMemoryToD(String address) {
+        return ASM.loadMemoryToD(address);
+    }
+
+    /**
+     * Returns assembly code for storing D-register to given address, e.g. a static variable
+     *
+     * @param address
+     * @return assembly code for storing D-register to given address
+     */
+    public static String storeDToMemory(String address) {
+        return ASM.storeDToMemory(address);
+    }
+
+    /**
+     * Returns the address of given temp segment index
+     *
+     * @param index
+     * @return the address of given temp segment index
+     */
+    public static String tempAddress(int index) {
+        return ASM.tempAddress(index);
+    }
+
+    /**
+     * Returns the address of given pointer segment index: THIS if index is 0, THAT if it's 1
+     *
+     * @param index
+     * @return the address of given pointer segment index
+     */
+    public static String pointerAddress(int index) {
+        return index == 0 ? "THIS" : "THAT";
+    }
+
+    /**
+     * Returns assembly code for a binary VM command whose operand y, the stack top, is held in D-register.
+     * The operand x is popped from the stack and the result is left in D-register.
+     *
+     * @param computation computation of the result from x in M and y in D, e.g. "D+M" or "M-D"
+     * @return assembly code for a binary VM command on the stack top held in D-register
+     */
+    public static String binaryOnD(String computation) {
+        List<String> result = List.of(
+                ASM.moveValueToA("SP"),
+                "AM=M-1",
+                "D=" + computation
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for a comparison VM command whose operand y, the stack top, is held in D-register.
+     * The operand x is popped from the stack and the result is left in D-register.
+     *
+     * @param condition EQ, GT or LT
+     * @param labelName unique name of the injected labels
+     * @return assembly code for a comparison VM command on the stack top held in D-register
+     */
+    public static String compareOnD(String condition, String labelName) {
+        List<String> result = List.of(
+                binaryOnD("M-D"),
+                ASM.setDTrueFalseIf(condition, labelName)
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for VM command IF-GOTO on the stack top held in D-register
+     *
+     * @param labelName
+     * @return assembly code for VM command IF-GOTO on the stack top held in D-register
+     */
+    public static String ifGotoOnD(String labelName) {
+        List<String> result = List.of(
+                ASM.moveValueToA(labelName),
+                ASM.jne()
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for VM command FUNCTION, with local variables set to 0 in given way
      *
      * @param functionName
      * @param nVars
+     * @param initialization
+     * @param labelName      label of the loop or of the return from the shared routine, otherwise null
      * @return assembly code for VM command FUNCTION
      */
-    public static String function(String functionName, String nVars) {
-        if (nVars.equals("0")) {
+    public static String function(String functionName, int nVars, LocalInitialization initialization, String labelName) {
+        if (nVars == 0) {
             return label(functionName);
         }
         List<String> result = List.of(
                 // put label for function block
                 label(functionName),
                 // initialize locals
-                initLocalSegment(nVars)
+                initLocalSegment(nVars, initialization, labelName)
         );
         return String.join(System.lineSeparator(), result);
     }
 
     /**
-     * Returns assembly code for setting all LOCAL segment to 0
+     * Returns assembly code for setting all LOCAL segment to 0 in given way
      *
      * @param nVars
+     * @param initialization
+     * @param labelName      label of the loop or of the return from the shared routine
      * @return assembly code for setting all LOCAL segment to 0
      */
-    private static String initLocalSegment(String nVars) {
-        int n = Integer.parseInt(nVars);
+    private static String initLocalSegment(int nVars, LocalInitialization initialization, String labelName) {
         List<String> result = new ArrayList<>();
-        for (int i = 0; i < n; i++) {
-            result.add(pushValue("0"));
+        switch (initialization) {
+            case PUSHES:
+                for (int i = 0; i < nVars; i++) {
+                    result.add(ASM.pushComputation("0"));
+                }
+                break;
+            case STORES:
+                // walk from SP storing 0, then SP = last address + 1
+                result.add(ASM.moveValueToA("SP"));
+                result.add("A=M");
+                result.add("M=0");
+                for (int i = 1; i < nVars; i++) {
+                    result.add("A=A+1");
+                    result.add("M=0");
+                }
+                result.add("D=A+1");
+                result.add(ASM.storeDToMemory("SP"));
+                break;
+            case LOOP:
+                // SP += nVars, then store 0 to SP - D for D = nVars..1
+                result.add(ASM.moveValueToD(String.valueOf(nVars)));
+                result.add(ASM.moveValueToA("SP"));
+                result.add("M=D+M");
+                result.add(label(labelName));
+                result.add(ASM.moveValueToA("SP"));
+                result.add("A=M-D");
+                result.add("M=0");
+                result.add(ASM.moveValueToA(labelName));
+                result.add("D=D-1;JGT");
+                break;
+            case ROUTINE:
+                result.add(callHelper(zeroLocalsHelperName(nVars), labelName));
+                break;
         }
         return String.join(System.lineSeparator(), result);
     }
@@ -429,14 +607,13 @@ public class ASMWriter {
      *
      * @param functionName
      * @param nArgs
+     * @param retAddressLabelName
      * @return assembly code for VM command CALL.
      */
-    public static String call(String functionName, String nArgs) {
-        String retAddressLabelName = functionName + "$ret." + callCounter;
-        callCounter++;
+    public static String call(String functionName, int nArgs, String retAddressLabelName) {
         List<String> result = List.of(
                 // push retAddressLabel
-                pushValue(retAddressLabelName),
+                ASM.pushValue(retAddressLabelName),
                 // push LCL
                 ASM.pushFromMemory("LCL"),
                 // push ARG
@@ -449,7 +626,7 @@ public class ASMWriter {
                 ASM.loadMemoryToD("SP"),
                 ASM.moveValueToA("5"),
                 ASM.subAFromD(),
-                ASM.moveValueToA(nArgs),
+                ASM.moveValueToA(String.valueOf(nArgs)),
                 ASM.subAFromD(),
                 ASM.storeDToMemory("ARG"),
                 // reposition for callee LCL = SP
@@ -462,6 +639,484 @@ public class ASMWriter {
         return String.join(System.lineSeparator(), result);
     }
 
+    /**
+     * Returns assembly code for VM command CALL followed by RETURN, reusing the frame of the caller.
+     * If the caller has got as many arguments as the callee (LCL - ARG = nArgs + 5), the arguments are moved
+     * to the caller ARG, the stack is emptied to LCL and the callee is jumped to, so that it returns straight
+     * to the caller of the caller. Otherwise the code following the given label, a regular call and return, is run.
+     *
+     * @param functionName
+     * @param nArgs
+     * @param regularCallLabelName label of the regular call
+     * @return assembly code for VM command CALL followed by RETURN, reusing the frame of the caller
+     */
+    public static String tailCall(String functionName, int nArgs, String regularCallLabelName) {
+        List<String> result = new ArrayList<>();
+        // frame of the caller can be reused if LCL - ARG - nArgs - 5 == 0
+        result.add(ASM.loadMemoryToD("LCL"));
+        result.add(ASM.moveValueToA("ARG"));
+        result.add("D=D-M");
+        result.add(ASM.moveValueToA(String.valueOf(nArgs + 5)));
+        result.add(ASM.subAFromD());
+        result.add(ASM.moveValueToA(regularCallLabelName));
+        result.add(ASM.jne());
+        // move arguments to the caller ARG, the last one first
+        for (int i = nArgs - 1; i >= 0; i--) {
+            result.add(ASM.popToPointedSegment("ARG", i));
+        }
+        // SP = LCL and transfer control to callee
+        result.add(ASM.moveFromMemoryToMemory("LCL", "SP"));
+        result.add(goTo(functionName));
+        result.add(label(regularCallLabelName));
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for VM command CALL made through the shared call routine.
+     * Address R13 is used to pass nArgs, address R14 to pass the callee address,
+     * D-register holds the return address.
+     *
+     * @param functionName
+     * @param nArgs
+     * @param retAddressLabelName
+     * @return assembly code for VM command CALL made through the shared call routine
+     */
+    public static String callViaRoutine(String functionName, int nArgs, String retAddressLabelName) {
+        List<String> result = List.of(
+                ASM.storeValueToMemory(String.valueOf(nArgs), "R13"),
+                ASM.storeValueToMemory(functionName, "R14"),
+                ASM.moveValueToD(retAddressLabelName),
+                goTo(callRoutineLabel),
+                label(retAddressLabelName)
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for VM command RETURN made through the shared return routine
+     *
+     * @return assembly code for VM command RETURN made through the shared return routine
+     */
+    public static String retViaRoutine() {
+        return goTo(returnRoutineLabel);
+    }
+
+    /**
+     * Returns assembly code of the shared call routine.
+     * It saves the caller frame, repositions ARG and LCL and jumps to the callee.
+     * Expects nArgs in R13, callee address in R14 and return address in D-register.
+     *
+     * @return assembly code of the shared call routine
+     */
+    public static String callRoutine() {
+        List<String> result = List.of(
+                label(callRoutineLabel),
+                // push return address
+                ASM.storeDToDereference("SP"),
+                // push LCL, ARG, THIS, THAT
+                ASM.loadMemoryToD("LCL"),
+                ASM.storeDToPreIncremented("SP"),
+                ASM.loadMemoryToD("ARG"),
+                ASM.storeDToPreIncremented("SP"),
+                ASM.loadMemoryToD("THIS"),
+                ASM.storeDToPreIncremented("SP"),
+                ASM.loadMemoryToD("THAT"),
+                ASM.storeDToPreIncremented("SP"),
+                // SP++ and LCL = SP
+                ASM.moveValueToA("SP"),
+                "MD=M+1",
+                ASM.storeDToMemory("LCL"),
+                // ARG = SP - 5 - nArgs
+                ASM.moveValueToA("5"),
+                ASM.subAFromD(),
+                ASM.moveValueToA("R13"),
+                "D=D-M",
+                ASM.storeDToMemory("ARG"),
+                // transfer control to callee
+                ASM.jumpToDereference("R14")
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the shared return routine.
+     * Address R13 is used as temporary storage of FRAME pointer.
+     * Address R14 is used as temporary storage of RETURN ADDRESS.
+     *
+     * @return assembly code of the shared return routine
+     */
+    public static String returnRoutine() {
+        List<String> result = List.of(
+                label(returnRoutineLabel),
+                // store LCL to R13 as frame
+                ASM.moveFromMemoryToMemory("LCL", "R13"),
+                // store *(frame - 5) to R14 as retAddress to jump
+                ASM.moveValueToA("5"),
+                "A=D-A",
+                "D=M",
+                ASM.storeDToMemory("R14"),
+                // pop returnValue to *ARG
+                ASM.popD(),
+                ASM.storeDToDereference("ARG"),
+                // SP = ARG + 1
+                ASM.moveValueToA("ARG"),
+                "D=M+1",
+                ASM.storeDToMemory("SP"),
+                // restore THAT, THIS, ARG, LCL of the caller
+                ASM.loadPreDecrementedToD("R13"),
+                ASM.storeDToMemory("THAT"),
+                ASM.loadPreDecrementedToD("R13"),
+                ASM.storeDToMemory("THIS"),
+                ASM.loadPreDecrementedToD("R13"),
+                ASM.storeDToMemory("ARG"),
+                ASM.loadPreDecrementedToD("R13"),
+                ASM.storeDToMemory("LCL"),
+                // jmp to address in R14
+                ASM.jumpToDereference("R14")
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for calling a helper routine with given name.
+     * D-register holds the return address.
+     * Supported helpers are comparisons EQ, GT, LT and binary operations ADD, SUB, AND, OR.
+     *
+     * @param helperName
+     * @param retAddressLabelName
+     * @return assembly code for calling a helper routine with given name
+     */
+    public static String callHelper(String helperName, String retAddressLabelName) {
+        List<String> result = List.of(
+                ASM.moveValueToD(retAddressLabelName),
+                goTo(helperLabel(helperName)),
+                label(retAddressLabelName)
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code for PUSH from given pointed segment index made through the helper library.
+     * Address R15 is used to pass the return address, D-register holds the index.
+     *
+     * @param reference one of LCL, ARG, THIS, THAT
+     * @param index
+     * @param retAddressLabelName
+     * @return assembly code for PUSH from given pointed segment index made through the helper library
+     */
+    public static String pushViaHelper(String reference, int index, String retAddressLabelName) {
+        return callSegmentHelper(pushHelperLabel(reference), index, retAddressLabelName);
+    }
+
+    /**
+     * Returns assembly code for POP to given pointed segment index made through the helper library.
+     * Address R15 is used to pass the return address, D-register holds the index.
+     *
+     * @param reference one of LCL, ARG, THIS, THAT
+     * @param index
+     * @param retAddressLabelName
+     * @return assembly code for POP to given pointed segment index made through the helper library
+     */
+    public static String popViaHelper(String reference, int index, String retAddressLabelName) {
+        return callSegmentHelper(popHelperLabel(reference), index, retAddressLabelName);
+    }
+
+    /**
+     * Returns true if calling a segment helper with given index takes fewer instructions than given direct code
+     *
+     * @param directCode assembly code accessing the segment without helpers
+     * @param index
+     * @return true if the helper call is shorter than given direct code
+     */
+    public static boolean isSegmentHelperShorter(String directCode, int index) {
+        return instructionCount(callSegmentHelper("", index, "")) < instructionCount(directCode);
+    }
+
+    /**
+     * Returns the number of instructions of given assembly code, not counting labels and comments
+     *
+     * @param asm
+     * @return the number of instructions of given assembly code
+     */
+    private static long instructionCount(String asm) {
+        return asm.lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("(") && !line.startsWith("//"))
+                .count();
+    }
+
+    /**
+     * Returns assembly code for calling a segment helper of given label with given index
+     *
+     * @param helperLabel
+     * @param index
+     * @param retAddressLabelName
+     * @return assembly code for calling a segment helper of given label with given index
+     */
+    private static String callSegmentHelper(String helperLabel, int index, String retAddressLabelName) {
+        List<String> result = List.of(
+                ASM.storeValueToMemory(retAddressLabelName, "R15"),
+                ASM.moveValueToD(String.valueOf(index)),
+                goTo(helperLabel),
+                label(retAddressLabelName)
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Adds the helper labels referenced by given assembly code, e.g. "$ADD$" for "@$ADD$", to given set
+     *
+     * @param asm
+     * @param result set of referenced helper labels
+     * @return true if a label was added
+     */
+    public static boolean collectHelperReferences(String asm, Set<String> result) {
+        boolean added = false;
+        int start = asm.indexOf("@$");
+        while (start >= 0) {
+            int end = asm.indexOf('$', start + 2);
+            if (end < 0) {
+                break;
+            }
+            added |= result.add(asm.substring(start + 1, end + 1));
+            start = asm.indexOf("@$", end + 1);
+        }
+        return added;
+    }
+
+    /**
+     * Returns assembly code of the helper library: comparisons, binary operations, pointed segment access
+     * and local variables initialization. Only the entries of given labels are emitted, with the entries
+     * they use in turn. It is meant to be emitted once per program.
+     *
+     * @param referencedLabels labels referenced by the program, as collected by collectHelperReferences
+     * @return assembly code of the referenced part of the helper library
+     */
+    public static String helperLibrary(Set<String> referencedLabels) {
+        Map<String, String> helpers = new LinkedHashMap<>();
+        for (String condition : comparisons) {
+            helpers.put(helperLabel(condition), comparisonHelper(condition));
+        }
+        helpers.put(trueHelperLabel, booleanResultHelper(trueHelperLabel, "-1"));
+        helpers.put(falseHelperLabel, booleanResultHelper(falseHelperLabel, "0"));
+        helpers.put(helperLabel("ADD"), binaryOperationHelper("ADD", "M=D+M"));
+        helpers.put(helperLabel("SUB"), binaryOperationHelper("SUB", "M=M-D"));
+        helpers.put(helperLabel("AND"), binaryOperationHelper("AND", "M=D&M"));
+        helpers.put(helperLabel("OR"), binaryOperationHelper("OR", "M=D|M"));
+        for (String reference : pointedSegments) {
+            helpers.put(pushHelperLabel(reference), pushSegmentHelper(reference));
+            helpers.put(popHelperLabel(reference), popSegmentHelper(reference));
+        }
+        helpers.put(pushHelperLabel, pushHelper());
+        helpers.put(popHelperLabel, popHelper());
+        Set<String> referenced = new HashSet<>(referencedLabels);
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Map.Entry<String, String> helper : helpers.entrySet()) {
+                if (referenced.contains(helper.getKey())) {
+                    added |= collectHelperReferences(helper.getValue(), referenced);
+                }
+            }
+        }
+        List<String> result = new ArrayList<>();
+        helpers.forEach((label, code) -> {
+            if (referenced.contains(label)) {
+                result.add(code);
+            }
+        });
+        for (int nVars = LocalInitialization.maxRoutineVars; nVars > 0; nVars--) {
+            if (referenced.contains(helperLabel(zeroLocalsHelperName(nVars)))) {
+                result.add(zeroLocalsHelper(nVars));
+                break;
+            }
+        }
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the helper comparing the two topmost stack values with given condition.
+     * The first operand is replaced by the result, SP is decremented.
+     *
+     * @param condition
+     * @return assembly code of the comparison helper
+     */
+    private static String comparisonHelper(String condition) {
+        List<String> result = List.of(
+                label(helperLabel(condition)),
+                ASM.storeDToMemory("R15"),
+                ASM.loadPreDecrementedToD("SP"),
+                "A=A-1",
+                "D=M-D",
+                ASM.moveValueToA(trueHelperLabel),
+                "D;J" + condition,
+                goTo(falseHelperLabel)
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the helper setting the stack top to given value and returning to address in R15
+     *
+     * @param helperLabel
+     * @param value
+     * @return assembly code of the helper setting the stack top to given value
+     */
+    private static String booleanResultHelper(String helperLabel, String value) {
+        List<String> result = List.of(
+                label(helperLabel),
+                ASM.moveValueToA("SP"),
+                "A=M-1",
+                "M=" + value,
+                ASM.jumpToDereference("R15")
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the helper applying given in-place computation on the two topmost stack values
+     *
+     * @param operation
+     * @param computation
+     * @return assembly code of the binary operation helper
+     */
+    private static String binaryOperationHelper(String operation, String computation) {
+        List<String> result = List.of(
+                label(helperLabel(operation)),
+                ASM.storeDToMemory("R15"),
+                ASM.loadPreDecrementedToD("SP"),
+                "A=A-1",
+                computation,
+                ASM.jumpToDereference("R15")
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the helper loading given pointed segment index (in D-register) to D-register
+     *
+     * @param reference
+     * @return assembly code of the push helper for given pointed segment
+     */
+    private static String pushSegmentHelper(String reference) {
+        List<String> result = List.of(
+                label(pushHelperLabel(reference)),
+                ASM.moveValueToA(reference),
+                "A=D+M",
+                "D=M",
+                goTo(pushHelperLabel)
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the helper storing effective address of given pointed segment index
+     * (in D-register) to R13
+     *
+     * @param reference
+     * @return assembly code of the pop helper for given pointed segment
+     */
+    private static String popSegmentHelper(String reference) {
+        List<String> result = List.of(
+                label(popHelperLabel(reference)),
+                ASM.moveValueToA(reference),
+                "D=D+M",
+                ASM.storeDToMemory("R13"),
+                goTo(popHelperLabel)
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the helper pushing D-register and returning to address in R15
+     *
+     * @return assembly code of the push helper
+     */
+    private static String pushHelper() {
+        List<String> result = List.of(
+                label(pushHelperLabel),
+                ASM.moveValueToA("SP"),
+                "AM=M+1",
+                "A=A-1",
+                "M=D",
+                ASM.jumpToDereference("R15")
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns assembly code of the helper pushing 0 up to given number of times and returning to address
+     * in D-register. It has got one entry per number of pushes, falling through to the next one.
+     *
+     * @param maxVars number of pushes of the first entry
+     * @return assembly code of the helper setting local variables to 0
+     */
+    private static String zeroLocalsHelper(int maxVars) {
+        List<String> result = new ArrayList<>();
+        for (int nVars = maxVars; nVars > 0; nVars--) {
+            result.add(label(helperLabel(zeroLocalsHelperName(nVars))));
+            result.add(ASM.pushComputation("0"));
+        }
+        result.add("A=D");
+        result.add(ASM.jmp());
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns name of the entry of the helper setting given number of local variables to 0
+     *
+     * @param nVars
+     * @return name of the entry of the helper setting local variables to 0
+     */
+    private static String zeroLocalsHelperName(int nVars) {
+        return "ZERO" + nVars;
+    }
+
+    /**
+     * Returns assembly code of the helper popping to address stored in R13 and returning to address in R15
+     *
+     * @return assembly code of the pop helper
+     */
+    private static String popHelper() {
+        List<String> result = List.of(
+                label(popHelperLabel),
+                ASM.loadPreDecrementedToD("SP"),
+                ASM.storeDToDereference("R13"),
+                ASM.jumpToDereference("R15")
+        );
+        return String.join(System.lineSeparator(), result);
+    }
+
+    /**
+     * Returns label of the helper with given name
+     *
+     * @param helperName
+     * @return label of the helper with given name
+     */
+    private static String helperLabel(String helperName) {
+        return "$" + helperName + "$";
+    }
+
+    /**
+     * Returns label of the push helper for given pointed segment
+     *
+     * @param reference
+     * @return label of the push helper for given pointed segment
+     */
+    private static String pushHelperLabel(String reference) {
+        return "$PUSH." + reference + "$";
+    }
+
+    /**
+     * Returns label of the pop helper for given pointed segment
+     *
+     * @param reference
+     * @return label of the pop helper for given pointed segment
+     */
+    private static String popHelperLabel(String reference) {
+        return "$POP." + reference + "$";
+    }
+
     /**
      * Returns assembler code for setting SP and calling Sys.init function
      *
@@ -490,7 +1145,7 @@ public class ASMWriter {
      * @return assembler code for calling Sys.init function
      */
     private static String callSysInit() {
-        return call("Sys.init", "0");
+        return call("Sys.init", 0, bootstrapReturnLabel);
     }
 
     /**
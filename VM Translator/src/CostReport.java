@@ -0,0 +1,237 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Represents a static cost report of a translated program: the number of Hack instructions
+ * attributed to each VM file, function and command kind, e.g. "push local" or "call".
+ * Instructions are attributed from the comments of the assembly code: the section comments of VMProgram
+ * and the VM command comment preceding the code of each command. After peephole optimization
+ * an instruction rewritten across two commands is attributed to the latter.
+ * Function prologues are also summed up by the way they set the local variables to 0, with instructions
+ * and cycles of one call of each function.
+ */
+public class CostReport implements Consumer<String> {
+    /**
+     * Number of instructions the Hack ROM can hold
+     */
+    public static final int romSize = 32768;
+    private static final double warningRomRatio = 0.9;
+    private static final int maxPrintedRows = 20;
+    private static final String sharedFileName = "(shared)";
+
+    private final Map<String, Integer> fileCosts = new HashMap<>();
+    private final Map<String, Integer> functionCosts = new HashMap<>();
+    private final Map<String, Integer> commandCosts = new HashMap<>();
+    private final Map<LocalInitialization, Integer> initializationFunctions = new EnumMap<>(LocalInitialization.class);
+    private final Map<LocalInitialization, Integer> initializationCosts = new EnumMap<>(LocalInitialization.class);
+    private final Map<LocalInitialization, Integer> initializationCycles = new EnumMap<>(LocalInitialization.class);
+    private final boolean sharedHelpers;
+    private LocalInitialization initialization = null;
+    private String fileName = sharedFileName;
+    private String functionName = sharedFileName;
+    private String commandKind = sharedFileName;
+    private int total = 0;
+
+    /**
+     * Creates the report of a program translated with default options
+     */
+    public CostReport() {
+        this(TranslatorOptions.defaults());
+    }
+
+    /**
+     * Creates the report of a program translated with given options
+     *
+     * @param options
+     */
+    public CostReport(TranslatorOptions options) {
+        this.sharedHelpers = options.isSharedHelpers();
+    }
+
+    /**
+     * Attributes the instructions of given assembly code, which may contain several lines
+     *
+     * @param asmCode
+     */
+    @Override
+    public void accept(String asmCode) {
+        asmCode.lines().forEach(this::acceptLine);
+    }
+
+    /**
+     * Returns the total number of instructions
+     *
+     * @return the total number of instructions
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of instructions of given VM file, or of shared code if "(shared)"
+     *
+     * @param fileName VM file name, without extension
+     * @return the number of instructions of given VM file
+     */
+    public int getFileCost(String fileName) {
+        return fileCosts.getOrDefault(fileName, 0);
+    }
+
+    /**
+     * Returns the number of instructions of given function, including its prologue
+     *
+     * @param functionName
+     * @return the number of instructions of given function
+     */
+    public int getFunctionCost(String functionName) {
+        return functionCosts.getOrDefault(functionName, 0);
+    }
+
+    /**
+     * Returns the number of instructions of given command kind, i.e. opcode followed by segment for push and pop
+     *
+     * @param commandKind
+     * @return the number of instructions of given command kind
+     */
+    public int getCommandCost(String commandKind) {
+        return commandCosts.getOrDefault(commandKind, 0);
+    }
+
+    /**
+     * Returns the number of prologue instructions setting local variables to 0 in given way
+     *
+     * @param initialization
+     * @return the number of instructions of given local initialization
+     */
+    public int getInitializationCost(LocalInitialization initialization) {
+        return initializationCosts.getOrDefault(initialization, 0);
+    }
+
+    /**
+     * Returns the number of cycles setting local variables to 0 in given way, one call of each function
+     *
+     * @param initialization
+     * @return the number of cycles of given local initialization
+     */
+    public int getInitializationCycles(LocalInitialization initialization) {
+        return initializationCycles.getOrDefault(initialization, 0);
+    }
+
+    /**
+     * Prints the report to given stream: total and ROM use, then costs by file, function and command kind,
+     * the largest first
+     *
+     * @param out
+     */
+    public void print(PrintStream out) {
+        out.println("Total: " + total + " instructions, " + percent(total, romSize) + " of the ROM");
+        if (total > romSize) {
+            out.println("ERROR: the program exceeds the ROM size of " + romSize + " instructions");
+        } else if (total >= romSize * warningRomRatio) {
+            out.println("WARNING: the program is close to the ROM size of " + romSize + " instructions");
+        }
+        printTable(out, "File", fileCosts);
+        printTable(out, "Function", functionCosts);
+        printTable(out, "Command", commandCosts);
+        printInitializations(out);
+    }
+
+    /**
+     * Attributes given line, if it is an instruction, to the current file, function and command kind,
+     * or updates them if it is a section or VM command comment
+     *
+     * @param line
+     */
+    private void acceptLine(String line) {
+        if (line.startsWith(VMProgram.sectionCommentPrefix)) {
+            String section = line.substring(VMProgram.sectionCommentPrefix.length());
+            initialization = null;
+            if (section.startsWith("file ")) {
+                fileName = section.substring("file ".length()).replaceFirst("\\.vm$", "");
+                functionName = fileName;
+                commandKind = sharedFileName;
+            } else {
+                fileName = sharedFileName;
+                functionName = section;
+                commandKind = section;
+            }
+        } else if (line.startsWith("//")) {
+            String[] tokens = line.substring(2).trim().split(" ");
+            VMOpcode opcode = VMOpcode.of(tokens[0]);
+            if (opcode == null) {
+                return;
+            }
+            initialization = null;
+            if (opcode == VMOpcode.FUNCTION) {
+                functionName = tokens[1];
+                int nVars = Integer.parseInt(tokens[2]);
+                if (nVars > 0) {
+                    initialization = LocalInitialization.of(nVars, sharedHelpers);
+                    initializationFunctions.merge(initialization, 1, Integer::sum);
+                    initializationCycles.merge(initialization, initialization.cycleCost(nVars), Integer::sum);
+                }
+            }
+            boolean hasSegment = opcode == VMOpcode.PUSH || opcode == VMOpcode.POP;
+            commandKind = hasSegment ? tokens[0] + " " + tokens[1] : tokens[0];
+        } else if (!line.isEmpty() && !line.startsWith("(")) {
+            total++;
+            fileCosts.merge(fileName, 1, Integer::sum);
+            functionCosts.merge(functionName, 1, Integer::sum);
+            commandCosts.merge(commandKind, 1, Integer::sum);
+            if (initialization != null) {
+                initializationCosts.merge(initialization, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Prints the number of functions, instructions and cycles of each way of setting local variables to 0.
+     * The cycles are those of one call of every function using it, not an average per call.
+     *
+     * @param out
+     */
+    private void printInitializations(PrintStream out) {
+        out.println();
+        out.printf("%-48s %10s %10s %20s%n", "Local initialization", "Functions", "Instr.", "Cycles, 1 call each");
+        for (LocalInitialization row : initializationFunctions.keySet()) {
+            out.printf("%-48s %10d %10d %20d%n", row, initializationFunctions.get(row), getInitializationCost(row),
+                    getInitializationCycles(row));
+        }
+    }
+
+    /**
+     * Prints given costs the largest first, up to max printed rows
+     *
+     * @param out
+     * @param title
+     * @param costs
+     */
+    private void printTable(PrintStream out, String title, Map<String, Integer> costs) {
+        List<Map.Entry<String, Integer>> rows = new ArrayList<>(costs.entrySet());
+        rows.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        out.println();
+        out.printf("%-48s %10s %8s%n", title, "Instr.", "Share");
+        for (Map.Entry<String, Integer> row : rows.subList(0, Math.min(rows.size(), maxPrintedRows))) {
+            out.printf("%-48s %10d %8s%n", row.getKey(), row.getValue(), percent(row.getValue(), total));
+        }
+        if (rows.size() > maxPrintedRows) {
+            out.println("... " + (rows.size() - maxPrintedRows) + " more");
+        }
+    }
+
+    /**
+     * Returns given part of given whole as percentage with one decimal
+     *
+     * @param part
+     * @param whole
+     * @return given part of given whole as percentage
+     */
+    private static String percent(int part, int whole) {
+        return String.format("%.1f%%", whole == 0 ? 0.0 : part * 100.0 / whole);
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Represents an on-disk cache of translated VM files.
+ * A fragment is stored under the SHA-256 of the file name, code generation options, a fingerprint of the
+ * translator classes and either the file content, looked up before the file is lexed, or the commands of a
+ * transformed program. So a changed file or translator simply misses.
+ * The total size is counted once when the cache is opened and then kept in memory. When it grows over the size
+ * limit, the least recently used fragments are deleted down to three quarters of the limit, so that the directory
+ * is listed only once in a while. It can be used by files translated concurrently.
+ */
+public class FragmentCache {
+    private static final String formatVersion = "3";
+    private static final String fragmentExtension = ".asm";
+    private static final List<Class<?>> generatorClasses = List.of(ASM.class, ASMWriter.class,
+            LocalInitialization.class, TranslationUnit.class, VMCommand.class, VMConstantFolder.class,
+            VMLexer.class, VMOpcode.class, VMParser.class, VMSegment.class);
+    private static final String generatorFingerprint = generatorFingerprint();
+    private final Path directory;
+    private final long maxSize;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+    private final AtomicLong totalSize = new AtomicLong();
+
+    /**
+     * Creates a cache in given directory, which is created if it doesn't exist
+     *
+     * @param directory
+     * @param maxSize   max total size of the fragments in bytes
+     */
+    public FragmentCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        totalSize.set(listFragments().stream().mapToLong(FragmentCache::size).sum());
+    }
+
+    /**
+     * Returns the assembly code of given VM file content, from the cache if there, otherwise from given translation,
+     * which is then stored. The content is hashed as read, so a cached file is not lexed.
+     *
+     * @param fileName
+     * @param vmCode      file content from the position to the limit of the buffer
+     * @param options
+     * @param translation
+     * @return the assembly code of given VM file
+     */
+    public List<String> get(String fileName, ByteBuffer vmCode, TranslatorOptions options,
+                            Supplier<List<String>> translation) {
+        return get(key(fileName, "content", options, digest -> digest.update(vmCode.duplicate())), translation);
+    }
+
+    /**
+     * Returns the assembly code of given VM commands, e.g. of a transformed program, from the cache if there,
+     * otherwise from given translation, which is then stored.
+     *
+     * @param fileName
+     * @param commands
+     * @param options
+     * @param translation
+     * @return the assembly code of given VM commands
+     */
+    public List<String> get(String fileName, List<VMCommand> commands, TranslatorOptions options,
+                            Supplier<List<String>> translation) {
+        return get(key(fileName, "commands", options, digest -> updateCommands(digest, commands)), translation);
+    }
+
+    /**
+     * Returns the fragment of given key, from the cache if there, otherwise from given translation,
+     * which is then stored.
+     *
+     * @param key
+     * @param translation
+     * @return the assembly code of given key
+     */
+    private List<String> get(String key, Supplier<List<String>> translation) {
+        Path fragmentPath = directory.resolve(key + fragmentExtension);
+        if (Files.isRegularFile(fragmentPath)) {
+            try {
+                String fragment = Files.readString(fragmentPath);
+                Files.setLastModifiedTime(fragmentPath, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.incrementAndGet();
+                return List.of(fragment);
+            } catch (IOException e) {
+                // evicted by a concurrent translation, translate it again
+            }
+        }
+        misses.incrementAndGet();
+        List<String> result = translation.get();
+        long addedSize = store(fragmentPath, String.join("\n", result));
+        if (totalSize.addAndGet(addedSize) > maxSize) {
+            evict(fragmentPath);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of fragments found in the cache
+     *
+     * @return the number of fragments found in the cache
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of fragments not found in the cache
+     *
+     * @return the number of fragments not found in the cache
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of fragments deleted to keep the cache under its size limit
+     *
+     * @return the number of fragments deleted
+     */
+    public int getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Writes given fragment to a temporary file first and then moves it to given path,
+     * so that a concurrent reader never sees a partial fragment
+     *
+     * @param fragmentPath
+     * @param fragment
+     * @return the number of bytes added to the cache, less the size of a replaced fragment
+     */
+    private long store(Path fragmentPath, String fragment) {
+        try {
+            Path tempPath = Files.createTempFile(directory, "fragment", ".tmp");
+            Files.writeString(tempPath, fragment);
+            long replacedSize = size(fragmentPath);
+            Files.move(tempPath, fragmentPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return size(fragmentPath) - replacedSize;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used fragments until the total size is under three quarters of the limit,
+     * except given fragment just stored. Nothing is deleted if a concurrent eviction already made room.
+     *
+     * @param storedFragmentPath
+     */
+    private synchronized void evict(Path storedFragmentPath) {
+        if (totalSize.get() <= maxSize) {
+            return;
+        }
+        long targetSize = maxSize / 4 * 3;
+        List<Path> fragments = listFragments();
+        fragments.sort(Comparator.comparing(FragmentCache::lastModifiedTime));
+        for (Path fragment : fragments) {
+            if (totalSize.get() <= targetSize) {
+                break;
+            }
+            if (fragment.equals(storedFragmentPath)) {
+                continue;
+            }
+            long fragmentSize = size(fragment);
+            try {
+                if (Files.deleteIfExists(fragment)) {
+                    evictions.incrementAndGet();
+                    totalSize.addAndGet(-fragmentSize);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the fragments of the cache directory
+     *
+     * @return the fragments of the cache directory
+     */
+    private List<Path> listFragments() {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(fragmentExtension))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 of given file name, kind of key, code generation options, translator
+     * fingerprint and file data passed to the digest by given consumer
+     *
+     * @param fileName
+     * @param kind     kind of the file data, so that content and commands never share a key
+     * @param options
+     * @param fileData
+     * @return the cache key of given file
+     */
+    private static String key(String fileName, String kind, TranslatorOptions options,
+                              Consumer<MessageDigest> fileData) {
+        MessageDigest digest = newDigest();
+        digest.update((formatVersion + "\n" + generatorFingerprint + "\n" + kind + "\n" + fileName + "\n"
+                + options.codeGenerationKey() + "\n").getBytes(StandardCharsets.UTF_8));
+        fileData.accept(digest);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Passes given commands to given digest.
+     * Each command is digested as its opcode, segment and operand followed by its symbol name,
+     * since symbol ids depend on the order names were met.
+     *
+     * @param digest
+     * @param commands
+     */
+    private static void updateCommands(MessageDigest digest, List<VMCommand> commands) {
+        ByteBuffer fields = ByteBuffer.allocate(6);
+        for (VMCommand command : commands) {
+            fields.clear();
+            fields.put((byte) command.getOpcode().ordinal());
+            fields.put((byte) (command.getSegment() == null ? -1 : command.getSegment().ordinal()));
+            fields.putInt(command.getOperand());
+            digest.update(fields.array());
+            if (command.getSymbol() != VMCommand.NO_SYMBOL) {
+                digest.update(command.getSymbolName().getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) '\n');
+        }
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 of the class files generating the assembly code, including their nested
+     * and synthetic classes, so that a change of the translator doesn't reuse fragments translated before.
+     * A class file which can't be read is represented by its name only.
+     *
+     * @return the fingerprint of the translator classes
+     */
+    private static String generatorFingerprint() {
+        List<String> classNames = new ArrayList<>();
+        for (Class<?> generatorClass : generatorClasses) {
+            classNames.add(generatorClass.getName());
+            for (Class<?> nestedClass : generatorClass.getDeclaredClasses()) {
+                classNames.add(nestedClass.getName());
+            }
+            for (int i = 1; ; i++) {
+                String syntheticClassName = generatorClass.getName() + "$" + i;
+                if (FragmentCache.class.getResource(syntheticClassName + ".class") == null) {
+                    break;
+                }
+                classNames.add(syntheticClassName);
+            }
+        }
+        MessageDigest digest = newDigest();
+        for (String className : classNames) {
+            digest.update((className + "\n").getBytes(StandardCharsets.UTF_8));
+            URL classFile = FragmentCache.class.getResource(className + ".class");
+            if (classFile == null) {
+                continue;
+            }
+            try (InputStream input = classFile.openStream()) {
+                digest.update(input.readAllBytes());
+            } catch (IOException e) {
+                // represented by its name only
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns a new SHA-256 digest
+     *
+     * @return a new SHA-256 digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns given bytes as hexadecimal digits
+     *
+     * @param bytes
+     * @return given bytes as hexadecimal digits
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the last modified time of given path, or the epoch if it was deleted meanwhile
+     *
+     * @param path
+     * @return the last modified time of given path
+     */
+    private static FileTime lastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Returns the size of given path, or 0 if it was deleted meanwhile
+     *
+     * @param path
+     * @return the size of given path
+     */
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Represents an assembler of Hack assembly language to Hack machine code.
+ * The first pass maps labels to instruction addresses, the second one encodes instructions,
+ * allocating variables from address 16 on. Symbol addresses are kept as ints in an open addressing table.
+ * A label defined twice and a constant over 32767 are rejected, as wrong C-instructions are.
+ */
+public class HackAssembler {
+    private static final int firstVariableAddress = 16;
+    private static final int maxConstant = 0x7FFF;
+    private static final Map<String, Integer> predefinedSymbols = new HashMap<>();
+    private static final Map<String, Integer> compCodes = new HashMap<>();
+    private static final List<String> jumps = List.of("", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP");
+
+    static {
+        predefinedSymbols.put("SP", 0);
+        predefinedSymbols.put("LCL", 1);
+        predefinedSymbols.put("ARG", 2);
+        predefinedSymbols.put("THIS", 3);
+        predefinedSymbols.put("THAT", 4);
+        for (int i = 0; i < 16; i++) {
+            predefinedSymbols.put("R" + i, i);
+        }
+        predefinedSymbols.put("SCREEN", 16384);
+        predefinedSymbols.put("KBD", 24576);
+
+        String[][] comps = {
+                {"0", "0101010"}, {"1", "0111111"}, {"-1", "0111010"}, {"D", "0001100"},
+                {"A", "0110000"}, {"!D", "0001101"}, {"!A", "0110001"}, {"-D", "0001111"},
+                {"-A", "0110011"}, {"D+1", "0011111"}, {"A+1", "0110111"}, {"D-1", "0001110"},
+                {"A-1", "0110010"}, {"D+A", "0000010"}, {"D-A", "0010011"}, {"A-D", "0000111"},
+                {"D&A", "0000000"}, {"D|A", "0010101"}, {"M", "1110000"}, {"!M", "1110001"},
+                {"-M", "1110011"}, {"M+1", "1110111"}, {"M-1", "1110010"}, {"D+M", "1000010"},
+                {"D-M", "1010011"}, {"M-D", "1000111"}, {"D&M", "1000000"}, {"D|M", "1010101"}
+        };
+        for (String[] comp : comps) {
+            compCodes.put(comp[0], Integer.parseInt(comp[1], 2));
+        }
+        // commutative forms accepted by the nand2tetris assembler
+        compCodes.put("1+D", compCodes.get("D+1"));
+        compCodes.put("1+A", compCodes.get("A+1"));
+        compCodes.put("1+M", compCodes.get("M+1"));
+        compCodes.put("A+D", compCodes.get("D+A"));
+        compCodes.put("M+D", compCodes.get("D+M"));
+        compCodes.put("A&D", compCodes.get("D&A"));
+        compCodes.put("M&D", compCodes.get("D&M"));
+        compCodes.put("A|D", compCodes.get("D|A"));
+        compCodes.put("M|D", compCodes.get("D|M"));
+    }
+
+    /**
+     * Returns machine code of given assembly code lines, one 16-bit instruction per element.
+     * Each given element may contain several lines.
+     *
+     * @param asmCode
+     * @return machine code of given assembly code
+     */
+    public static int[] assemble(List<String> asmCode) {
+        SymbolTable symbols = new SymbolTable();
+        predefinedSymbols.forEach(symbols::put);
+        int[] instructionCount = {0};
+        forEachInstruction(asmCode, instruction -> {
+            if (instruction.startsWith("(")) {
+                String label = instruction.substring(1, instruction.length() - 1);
+                if (symbols.get(label) >= 0) {
+                    throw new IllegalArgumentException("Duplicate label: " + instruction);
+                }
+                symbols.put(label, instructionCount[0]);
+            } else {
+                instructionCount[0]++;
+            }
+        });
+        Encoder encoder = new Encoder(symbols, instructionCount[0]);
+        forEachInstruction(asmCode, encoder);
+        return encoder.result;
+    }
+
+    /**
+     * Returns machine code of given instructions as lines of 16 binary digits, as in a ".hack" file
+     *
+     * @param instructions
+     * @return lines of 16 binary digits
+     */
+    public static String[] toBinaryLines(int[] instructions) {
+        String[] result = new String[instructions.length];
+        for (int i = 0; i < instructions.length; i++) {
+            String binary = Integer.toBinaryString(instructions[i] & 0xFFFF);
+            result[i] = "0".repeat(16 - binary.length()) + binary;
+        }
+        return result;
+    }
+
+    /**
+     * Returns machine code of given instructions as the content of a ".hack" file: lines of 16 binary digits
+     * separated by new lines
+     *
+     * @param instructions
+     * @return content of a ".hack" file
+     */
+    public static byte[] toBinaryText(int[] instructions) {
+        int lineLength = 17;
+        byte[] result = new byte[Math.max(0, instructions.length * lineLength - 1)];
+        for (int i = 0; i < instructions.length; i++) {
+            int offset = i * lineLength;
+            for (int bit = 0; bit < 16; bit++) {
+                result[offset + bit] = (byte) ((instructions[i] >> (15 - bit) & 1) == 0 ? '0' : '1');
+            }
+            if (i < instructions.length - 1) {
+                result[offset + 16] = '\n';
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns machine code of given instructions as a ROM image of 2 bytes per instruction, most significant byte first
+     *
+     * @param instructions
+     * @return ROM image of given instructions
+     */
+    public static byte[] toROMImage(int[] instructions) {
+        byte[] result = new byte[instructions.length * 2];
+        for (int i = 0; i < instructions.length; i++) {
+            result[2 * i] = (byte) (instructions[i] >> 8);
+            result[2 * i + 1] = (byte) instructions[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns instructions of given ROM image of 2 bytes per instruction, most significant byte first
+     *
+     * @param image
+     * @return instructions of given ROM image
+     */
+    public static int[] fromROMImage(byte[] image) {
+        int[] result = new int[image.length / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (image[2 * i] & 0xFF) << 8 | image[2 * i + 1] & 0xFF;
+        }
+        return result;
+    }
+
+    /**
+     * Returns machine code of given C-instruction
+     *
+     * @param instruction
+     * @return machine code of given C-instruction
+     */
+    private static int encodeCInstruction(String instruction) {
+        String dest = "";
+        String comp = instruction;
+        String jump = "";
+        int equalsIndex = comp.indexOf('=');
+        if (equalsIndex >= 0) {
+            dest = comp.substring(0, equalsIndex);
+            comp = comp.substring(equalsIndex + 1);
+        }
+        int semicolonIndex = comp.indexOf(';');
+        if (semicolonIndex >= 0) {
+            jump = comp.substring(semicolonIndex + 1);
+            comp = comp.substring(0, semicolonIndex);
+        }
+        Integer compCode = compCodes.get(comp);
+        int jumpCode = jumps.indexOf(jump);
+        if (compCode == null || jumpCode < 0) {
+            throw new IllegalArgumentException("Wrong instruction: " + instruction);
+        }
+        int destCode = 0;
+        for (char register : dest.toCharArray()) {
+            switch (register) {
+                case 'A':
+                    destCode |= 4;
+                    break;
+                case 'D':
+                    destCode |= 2;
+                    break;
+                case 'M':
+                    destCode |= 1;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Wrong instruction: " + instruction);
+            }
+        }
+        return 0xE000 | compCode << 6 | destCode << 3 | jumpCode;
+    }
+
+    /**
+     * Passes each instruction and label of given assembly code lines, without comments and whitespaces,
+     * to given consumer. Lines are split in place, so that the whole program is never held as instructions.
+     *
+     * @param asmCode   assembly code, each element may contain several lines
+     * @param consumer
+     */
+    private static void forEachInstruction(List<String> asmCode, Consumer<String> consumer) {
+        for (String code : asmCode) {
+            int start = 0;
+            while (start < code.length()) {
+                int end = code.indexOf('\n', start);
+                if (end < 0) {
+                    end = code.length();
+                }
+                String instruction = stripLine(code.substring(start, end));
+                if (!instruction.isEmpty()) {
+                    consumer.accept(instruction);
+                }
+                start = end + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns given line without comment and whitespaces.
+     * Only lines with whitespaces inside, unlike the generated code, go through the regular expression.
+     *
+     * @param line
+     * @return given line without comment and whitespaces
+     */
+    private static String stripLine(String line) {
+        int commentIndex = line.indexOf("//");
+        if (commentIndex >= 0) {
+            line = line.substring(0, commentIndex);
+        }
+        line = line.strip();
+        for (int i = 0; i < line.length(); i++) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                return line.replaceAll("\\s", "");
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Second pass of the assembler: encodes instructions, allocating variables from address 16 on.
+     * Generated code repeats a few C-instructions, each one is encoded once.
+     */
+    private static class Encoder implements Consumer<String> {
+        private final SymbolTable symbols;
+        private final Map<String, Integer> cInstructionCodes = new HashMap<>();
+        private final int[] result;
+        private int address = 0;
+        private int nextVariableAddress = firstVariableAddress;
+
+        private Encoder(SymbolTable symbols, int instructionCount) {
+            this.symbols = symbols;
+            this.result = new int[instructionCount];
+        }
+
+        @Override
+        public void accept(String instruction) {
+            if (instruction.startsWith("(")) {
+                return;
+            }
+            if (instruction.startsWith("@")) {
+                String value = instruction.substring(1);
+                if (Character.isDigit(value.charAt(0))) {
+                    int constant = Integer.parseInt(value);
+                    if (constant > maxConstant) {
+                        throw new IllegalArgumentException("Wrong constant: " + instruction);
+                    }
+                    result[address] = constant;
+                } else {
+                    int symbolAddress = symbols.get(value);
+                    if (symbolAddress < 0) {
+                        symbolAddress = nextVariableAddress;
+                        symbols.put(value, nextVariableAddress);
+                        nextVariableAddress++;
+                    }
+                    result[address] = symbolAddress;
+                }
+            } else {
+                result[address] = cInstructionCodes.computeIfAbsent(instruction, HackAssembler::encodeCInstruction);
+            }
+            address++;
+        }
+    }
+
+    /**
+     * Table of symbol addresses with open addressing and linear probing, keeping addresses as ints
+     * instead of boxing them as the values of a map
+     */
+    private static class SymbolTable {
+        private String[] names = new String[1024];
+        private int[] addresses = new int[1024];
+        private int size = 0;
+
+        /**
+         * Returns the address of given symbol
+         *
+         * @param name
+         * @return the address of given symbol, or -1 if it's not defined
+         */
+        private int get(String name) {
+            int index = indexOf(name);
+            return names[index] == null ? -1 : addresses[index];
+        }
+
+        /**
+         * Sets the address of given symbol
+         *
+         * @param name
+         * @param address
+         */
+        private void put(String name, int address) {
+            if (2 * (size + 1) > names.length) {
+                grow();
+            }
+            int index = indexOf(name);
+            if (names[index] == null) {
+                names[index] = name;
+                size++;
+            }
+            addresses[index] = address;
+        }
+
+        /**
+         * Returns the index of given symbol, or of the free slot where it would be put
+         *
+         * @param name
+         * @return the index of given symbol or of a free slot
+         */
+        private int indexOf(String name) {
+            int mask = names.length - 1;
+            int hash = name.hashCode() * 0x9E3779B9;
+            int index = (hash ^ hash >>> 16) & mask;
+            while (names[index] != null && !names[index].equals(name)) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        /**
+         * Doubles the capacity of the table, putting the symbols again
+         */
+        private void grow() {
+            String[] oldNames = names;
+            int[] oldAddresses = addresses;
+            names = new String[2 * oldNames.length];
+            addresses = new int[2 * oldNames.length];
+            for (int i = 0; i < oldNames.length; i++) {
+                if (oldNames[i] != null) {
+                    int index = indexOf(oldNames[i]);
+                    names[index] = oldNames[i];
+                    addresses[index] = oldAddresses[i];
+                }
+            }
+        }
+    }
+}
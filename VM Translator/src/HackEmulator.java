@@ -0,0 +1,393 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents an emulator of the Hack CPU.
+ * Instructions are decoded once into int arrays, so that the fetch/execute loop neither decodes nor allocates.
+ * Execution stops after given number of cycles or at the first halt loop "(L) @L 0;JMP".
+ * <p>
+ * Usage: java HackEmulator [--cycles=N] [--ram=ADDRESS:VALUE ...] [--dump=FROM-TO] [--profile[=FILE]] file
+ * where file is either a ".asm", a ".hack" or a ".rom" file, only ".asm" when profiling
+ */
+public class HackEmulator {
+    private static final int ramSize = 32768;
+    private static final int addressMask = 0x7FFF;
+    private static final long defaultMaxCycles = 100_000_000L;
+    private static final int aInstruction = -1;
+
+    // comp bits including a-bit of C-instructions, aInstruction for A-instructions
+    private final int[] comps;
+    // constant of A-instructions, dest bits of C-instructions
+    private final int[] values;
+    private final int[] jumps;
+    private final boolean[] haltLoops;
+    private final int[] ram = new int[ramSize];
+    private int a = 0;
+    private int d = 0;
+    private int pc = 0;
+    private long cycles = 0;
+    private boolean halted = false;
+
+    /**
+     * Creates an emulator of given 16-bit instructions
+     *
+     * @param instructions
+     */
+    public HackEmulator(int[] instructions) {
+        int length = instructions.length;
+        comps = new int[length];
+        values = new int[length];
+        jumps = new int[length];
+        haltLoops = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            int instruction = instructions[i] & 0xFFFF;
+            if ((instruction & 0x8000) == 0) {
+                comps[i] = aInstruction;
+                values[i] = instruction;
+            } else {
+                comps[i] = instruction >> 6 & 0x7F;
+                values[i] = instruction >> 3 & 0x7;
+                jumps[i] = instruction & 0x7;
+            }
+        }
+        for (int i = 1; i < length; i++) {
+            haltLoops[i] = comps[i] != aInstruction && values[i] == 0 && jumps[i] == 7
+                    && comps[i - 1] == aInstruction && values[i - 1] == i - 1;
+        }
+    }
+
+    /**
+     * Returns an emulator of the program in given ".asm", ".hack" or ".rom" file
+     *
+     * @param path
+     * @return an emulator of the program in given file
+     */
+    public static HackEmulator load(Path path) {
+        if (path.getFileName().toString().endsWith(".rom")) {
+            try {
+                return new HackEmulator(HackAssembler.fromROMImage(Files.readAllBytes(path)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        List<String> lines = readLines(path);
+        if (path.getFileName().toString().endsWith(".hack")) {
+            return new HackEmulator(lines.stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .mapToInt(line -> Integer.parseInt(line, 2))
+                    .toArray());
+        }
+        return new HackEmulator(HackAssembler.assemble(lines));
+    }
+
+    /**
+     * Returns all lines of given file
+     *
+     * @param path
+     * @return all lines of given file
+     */
+    private static List<String> readLines(Path path) {
+        try {
+            return Files.readAllLines(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs the program until it halts or given number of cycles in total is reached
+     *
+     * @param maxCycles
+     * @return true if the program halted
+     */
+    public boolean run(long maxCycles) {
+        int[] comps = this.comps;
+        int[] values = this.values;
+        int[] jumps = this.jumps;
+        boolean[] haltLoops = this.haltLoops;
+        int[] ram = this.ram;
+        int a = this.a;
+        int d = this.d;
+        int pc = this.pc;
+        long cycles = this.cycles;
+        int length = comps.length;
+        while (cycles < maxCycles) {
+            if (pc >= length || haltLoops[pc]) {
+                halted = true;
+                break;
+            }
+            cycles++;
+            int comp = comps[pc];
+            if (comp == aInstruction) {
+                a = values[pc];
+                pc++;
+                continue;
+            }
+            int out;
+            switch (comp) {
+                case 0b0101010:
+                    out = 0;
+                    break;
+                case 0b0111111:
+                    out = 1;
+                    break;
+                case 0b0111010:
+                    out = -1;
+                    break;
+                case 0b0001100:
+                    out = d;
+                    break;
+                case 0b0110000:
+                    out = a;
+                    break;
+                case 0b0001101:
+                    out = ~d;
+                    break;
+                case 0b0110001:
+                    out = ~a;
+                    break;
+                case 0b0001111:
+                    out = -d;
+                    break;
+                case 0b0110011:
+                    out = -a;
+                    break;
+                case 0b0011111:
+                    out = d + 1;
+                    break;
+                case 0b0110111:
+                    out = a + 1;
+                    break;
+                case 0b0001110:
+                    out = d - 1;
+                    break;
+                case 0b0110010:
+                    out = a - 1;
+                    break;
+                case 0b0000010:
+                    out = d + a;
+                    break;
+                case 0b0010011:
+                    out = d - a;
+                    break;
+                case 0b0000111:
+                    out = a - d;
+                    break;
+                case 0b0000000:
+                    out = d & a;
+                    break;
+                case 0b0010101:
+                    out = d | a;
+                    break;
+                case 0b1110000:
+                    out = ram[a & addressMask];
+                    break;
+                case 0b1110001:
+                    out = ~ram[a & addressMask];
+                    break;
+                case 0b1110011:
+                    out = -ram[a & addressMask];
+                    break;
+                case 0b1110111:
+                    out = ram[a & addressMask] + 1;
+                    break;
+                case 0b1110010:
+                    out = ram[a & addressMask] - 1;
+                    break;
+                case 0b1000010:
+                    out = d + ram[a & addressMask];
+                    break;
+                case 0b1010011:
+                    out = d - ram[a & addressMask];
+                    break;
+                case 0b1000111:
+                    out = ram[a & addressMask] - d;
+                    break;
+                case 0b1000000:
+                    out = d & ram[a & addressMask];
+                    break;
+                case 0b1010101:
+                    out = d | ram[a & addressMask];
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown computation at " + pc);
+            }
+            out = (short) out;
+            int dest = values[pc];
+            int jumpAddress = a;
+            if ((dest & 1) != 0) {
+                ram[a & addressMask] = out;
+            }
+            if ((dest & 4) != 0) {
+                a = out;
+            }
+            if ((dest & 2) != 0) {
+                d = out;
+            }
+            int jump = jumps[pc];
+            if ((out < 0 && (jump & 4) != 0) || (out == 0 && (jump & 2) != 0) || (out > 0 && (jump & 1) != 0)) {
+                pc = jumpAddress & addressMask;
+            } else {
+                pc++;
+            }
+        }
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        this.cycles = cycles;
+        return halted;
+    }
+
+    /**
+     * Returns the value at given RAM address
+     *
+     * @param address
+     * @return the value at given RAM address
+     */
+    public int getRAM(int address) {
+        return ram[address];
+    }
+
+    /**
+     * Sets the value at given RAM address
+     *
+     * @param address
+     * @param value
+     */
+    public void setRAM(int address, int value) {
+        ram[address] = (short) value;
+    }
+
+    /**
+     * Returns the number of instructions executed so far
+     *
+     * @return the number of instructions executed so far
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Returns true if the program reached a halt loop or the end of its instructions
+     *
+     * @return true if the program halted
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Returns the number of instructions of the program
+     *
+     * @return the number of instructions of the program
+     */
+    public int getProgramSize() {
+        return comps.length;
+    }
+
+    /**
+     * Returns the address of the next instruction
+     *
+     * @return the address of the next instruction
+     */
+    public int getPC() {
+        return pc;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            printUsage();
+            System.exit(0);
+        }
+        long maxCycles = defaultMaxCycles;
+        int dumpFrom = 0;
+        int dumpTo = 15;
+        boolean profiling = false;
+        Path foldedStacksPath = null;
+        List<int[]> ramAssignments = new ArrayList<>();
+        Path path = Path.of(args[args.length - 1]);
+        try {
+            for (int i = 0; i < args.length - 1; i++) {
+                String arg = args[i];
+                if (arg.startsWith("--cycles=")) {
+                    maxCycles = Long.parseLong(arg.substring("--cycles=".length()));
+                } else if (arg.startsWith("--ram=")) {
+                    String[] assignment = arg.substring("--ram=".length()).split(":");
+                    ramAssignments.add(new int[]{Integer.parseInt(assignment[0]), Integer.parseInt(assignment[1])});
+                } else if (arg.startsWith("--dump=")) {
+                    String[] range = arg.substring("--dump=".length()).split("-");
+                    dumpFrom = Integer.parseInt(range[0]);
+                    dumpTo = Integer.parseInt(range[1]);
+                } else if (arg.equals("--profile")) {
+                    profiling = true;
+                } else if (arg.startsWith("--profile=")) {
+                    profiling = true;
+                    foldedStacksPath = Path.of(arg.substring("--profile=".length()));
+                } else {
+                    System.out.println("Unknown option: " + arg);
+                    printUsage();
+                    System.exit(0);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Wrong option: " + e.getMessage());
+            printUsage();
+            System.exit(0);
+        }
+        if (profiling && !path.getFileName().toString().endsWith(".asm")) {
+            System.out.println("Only Hack assembly files (xxx.asm) can be profiled");
+            System.exit(0);
+        }
+        HackProfiler profiler = profiling ? new HackProfiler(readLines(path)) : null;
+        HackEmulator emulator = profiling ? profiler.getEmulator() : load(path);
+        for (int[] assignment : ramAssignments) {
+            emulator.setRAM(assignment[0], assignment[1]);
+        }
+        long start = System.nanoTime();
+        if (profiling) {
+            profiler.run(maxCycles);
+        } else {
+            emulator.run(maxCycles);
+        }
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        System.out.println("Program size: " + emulator.getProgramSize());
+        System.out.println("Cycles: " + emulator.getCycles());
+        System.out.println("Halted: " + emulator.isHalted());
+        System.out.println("Time: " + elapsed / 1_000_000 + " ms, "
+                + emulator.getCycles() * 1_000_000_000L / elapsed + " instructions/s");
+        for (int address = dumpFrom; address <= dumpTo; address++) {
+            System.out.println("RAM[" + address + "] = " + emulator.getRAM(address));
+        }
+        if (profiling) {
+            System.out.println();
+            profiler.printProfile(System.out);
+            System.out.println();
+            profiler.printCallTree(System.out);
+            if (foldedStacksPath != null) {
+                try {
+                    Files.write(foldedStacksPath, profiler.foldedStacks());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints to the console usage information
+     */
+    private static void printUsage() {
+        System.out.println("Usage: java HackEmulator [options] file" + System.lineSeparator());
+        System.out.println("where file is either a Hack assembly file (xxx.asm), a Hack machine code file (xxx.hack) or a ROM image (xxx.rom)");
+        System.out.println("Options:");
+        System.out.println("  --cycles=N             stop after N instructions, " + defaultMaxCycles + " by default");
+        System.out.println("  --ram=ADDRESS:VALUE    set RAM at given address before running, may be repeated");
+        System.out.println("  --dump=FROM-TO         print RAM from given address to given address, 0-15 by default");
+        System.out.println("  --profile[=FILE]       print calls, inclusive and exclusive cycles of each VM function and the call tree,");
+        System.out.println("                         and write folded stacks for flame graphs to given file");
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a profiler of VM functions running on the Hack emulator.
+ * ROM addresses of functions are mapped back from the labels following "function" command comments.
+ * A jump to a function address from the code of a call, i.e. following a "call" command comment, the bootstrap
+ * or the shared call routine, enters the function, its return address being read from the new frame (LCL - 5),
+ * and a jump to the return address of the current function leaves it. Other jumps to a function address,
+ * e.g. to a loop label right at the start of the function, stay in the function. A call keeping LCL
+ * of the current function is a tail call: the callee replaces the current function.
+ * Cycles are counted per node of the call tree, from which per function calls, inclusive and exclusive cycles
+ * and folded stacks for flame graphs are derived. Cycles spent outside of any function,
+ * e.g. in the bootstrap, are counted to the root "(program)".
+ */
+public class HackProfiler {
+    private static final String rootName = "(program)";
+    private static final int returnAddressOffset = 5;
+    private static final int lclAddress = 1;
+    private static final List<String> callSections = List.of("bootstrap", "call and return routines");
+
+    private final HackEmulator emulator;
+    private final boolean[] jumpInstructions;
+    private final boolean[] callInstructions;
+    private final Map<Integer, String> functionAddresses;
+    private final CallNode root = new CallNode(rootName);
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    /**
+     * Creates a profiler of the program of given assembly code lines
+     *
+     * @param asmCode assembly code generated by the translator, each element may contain several lines
+     */
+    public HackProfiler(List<String> asmCode) {
+        int[] instructions = HackAssembler.assemble(asmCode);
+        emulator = new HackEmulator(instructions);
+        jumpInstructions = new boolean[instructions.length];
+        for (int i = 0; i < instructions.length; i++) {
+            jumpInstructions[i] = (instructions[i] & 0x8000) != 0 && (instructions[i] & 0x7) != 0;
+        }
+        functionAddresses = functionAddresses(asmCode);
+        callInstructions = callInstructions(asmCode, instructions.length);
+        frames.push(new Frame(root, -1, -1));
+    }
+
+    /**
+     * Returns ROM addresses of functions of given assembly code, i.e. of labels following "function" command comments
+     *
+     * @param asmCode
+     * @return function names by ROM address
+     */
+    public static Map<Integer, String> functionAddresses(List<String> asmCode) {
+        Map<Integer, String> result = new HashMap<>();
+        String functionName = null;
+        int address = 0;
+        for (String line : (Iterable<String>) asmCode.stream().flatMap(String::lines)::iterator) {
+            line = line.trim();
+            if (line.startsWith("//")) {
+                String[] tokens = line.substring(2).trim().split(" ");
+                if (tokens.length == 3 && tokens[0].equals(VMOpcode.FUNCTION.getKeyword())) {
+                    functionName = tokens[1];
+                }
+            } else if (line.startsWith("(")) {
+                if (line.equals("(" + functionName + ")")) {
+                    result.put(address, functionName);
+                    functionName = null;
+                }
+            } else if (!line.isEmpty()) {
+                address++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ROM addresses of the code of calls in given assembly code: instructions following "call" command
+     * comments and in the bootstrap or shared call routine sections, up to the next comment
+     *
+     * @param asmCode
+     * @param romSize number of instructions of the program
+     * @return true at each ROM address of the code of a call
+     */
+    private static boolean[] callInstructions(List<String> asmCode, int romSize) {
+        boolean[] result = new boolean[romSize];
+        boolean insideCall = false;
+        int address = 0;
+        for (String line : (Iterable<String>) asmCode.stream().flatMap(String::lines)::iterator) {
+            line = line.trim();
+            if (line.startsWith(VMProgram.sectionCommentPrefix)) {
+                insideCall = callSections.contains(line.substring(VMProgram.sectionCommentPrefix.length()));
+            } else if (line.startsWith("//")) {
+                insideCall = line.substring(2).trim().startsWith(VMOpcode.CALL.getKeyword() + " ");
+            } else if (!line.isEmpty() && !line.startsWith("(")) {
+                result[address++] = insideCall;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the emulator running the program, e.g. to set its RAM before running
+     *
+     * @return the emulator running the program
+     */
+    public HackEmulator getEmulator() {
+        return emulator;
+    }
+
+    /**
+     * Runs the program one instruction at a time until it halts or given number of cycles in total is reached
+     *
+     * @param maxCycles
+     * @return true if the program halted
+     */
+    public boolean run(long maxCycles) {
+        while (emulator.getCycles() < maxCycles) {
+            int pc = emulator.getPC();
+            if (emulator.run(emulator.getCycles() + 1)) {
+                return true;
+            }
+            Frame frame = frames.peek();
+            frame.node.selfCycles++;
+            if (!jumpInstructions[pc]) {
+                continue;
+            }
+            int target = emulator.getPC();
+            String functionName = callInstructions[pc] ? functionAddresses.get(target) : null;
+            if (functionName != null) {
+                enter(functionName);
+            } else if (target == frame.returnAddress) {
+                frames.pop();
+            }
+        }
+        return emulator.isHalted();
+    }
+
+    /**
+     * Returns the number of times given function was called
+     *
+     * @param functionName
+     * @return the number of calls of given function
+     */
+    public long getCalls(String functionName) {
+        return profiles().getOrDefault(functionName, new FunctionProfile()).calls;
+    }
+
+    /**
+     * Returns the number of cycles spent in given function, including functions it called
+     *
+     * @param functionName
+     * @return inclusive cycles of given function
+     */
+    public long getInclusiveCycles(String functionName) {
+        return profiles().getOrDefault(functionName, new FunctionProfile()).inclusiveCycles;
+    }
+
+    /**
+     * Returns the number of cycles spent in given function itself
+     *
+     * @param functionName
+     * @return exclusive cycles of given function
+     */
+    public long getExclusiveCycles(String functionName) {
+        return profiles().getOrDefault(functionName, new FunctionProfile()).exclusiveCycles;
+    }
+
+    /**
+     * Returns folded stacks of the call tree, one "(program);caller;callee cycles" line per node with cycles
+     * of its own, in the format of flame graph tools
+     *
+     * @return folded stacks of the call tree
+     */
+    public List<String> foldedStacks() {
+        List<String> result = new ArrayList<>();
+        addFoldedStacks(root, rootName, result);
+        return result;
+    }
+
+    /**
+     * Prints calls, inclusive and exclusive cycles of each function, the most expensive first
+     *
+     * @param out
+     */
+    public void printProfile(PrintStream out) {
+        long totalCycles = emulator.getCycles();
+        List<Map.Entry<String, FunctionProfile>> rows = new ArrayList<>(profiles().entrySet());
+        rows.sort(Comparator.comparing((Map.Entry<String, FunctionProfile> row) -> row.getValue().inclusiveCycles)
+                .reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        out.printf("%-40s %10s %14s %14s %8s%n", "Function", "Calls", "Inclusive", "Exclusive", "Share");
+        for (Map.Entry<String, FunctionProfile> row : rows) {
+            FunctionProfile profile = row.getValue();
+            out.printf("%-40s %10d %14d %14d %7.1f%%%n", row.getKey(), profile.calls, profile.inclusiveCycles,
+                    profile.exclusiveCycles, totalCycles == 0 ? 0.0 : profile.exclusiveCycles * 100.0 / totalCycles);
+        }
+    }
+
+    /**
+     * Prints the call tree, one indented line per node with its calls and inclusive cycles
+     *
+     * @param out
+     */
+    public void printCallTree(PrintStream out) {
+        profiles();
+        printCallTree(out, root, "");
+    }
+
+    /**
+     * Enters given function called from the current one, or from the caller of the current one if it's a tail call
+     *
+     * @param functionName
+     */
+    private void enter(String functionName) {
+        int lcl = emulator.getRAM(lclAddress);
+        if (frames.size() > 1 && frames.peek().lcl == lcl) {
+            frames.pop();
+        }
+        int returnAddress = lcl >= returnAddressOffset ? emulator.getRAM(lcl - returnAddressOffset) : -1;
+        CallNode node = frames.peek().node.children.computeIfAbsent(functionName, CallNode::new);
+        node.calls++;
+        frames.push(new Frame(node, returnAddress, lcl));
+    }
+
+    /**
+     * Returns profiles of all functions from the call tree.
+     * Inclusive cycles of a recursive function are counted at its outermost call only.
+     *
+     * @return profiles of all functions by function name
+     */
+    private Map<String, FunctionProfile> profiles() {
+        Map<String, FunctionProfile> result = new HashMap<>();
+        addProfiles(root, new HashMap<>(), result);
+        return result;
+    }
+
+    /**
+     * Adds cycles and calls of given node and its descendants to given profiles
+     *
+     * @param node
+     * @param activeCalls number of calls of each function on the path to given node
+     * @param profiles
+     * @return inclusive cycles of given node
+     */
+    private static long addProfiles(CallNode node, Map<String, Integer> activeCalls,
+                                    Map<String, FunctionProfile> profiles) {
+        activeCalls.merge(node.name, 1, Integer::sum);
+        long inclusiveCycles = node.selfCycles;
+        for (CallNode child : node.children.values()) {
+            inclusiveCycles += addProfiles(child, activeCalls, profiles);
+        }
+        node.inclusiveCycles = inclusiveCycles;
+        int active = activeCalls.merge(node.name, -1, Integer::sum);
+        FunctionProfile profile = profiles.computeIfAbsent(node.name, name -> new FunctionProfile());
+        profile.calls += node.calls;
+        profile.exclusiveCycles += node.selfCycles;
+        if (active == 0) {
+            profile.inclusiveCycles += inclusiveCycles;
+        }
+        return inclusiveCycles;
+    }
+
+    /**
+     * Adds folded stacks of given node and its descendants to given list
+     *
+     * @param node
+     * @param stack  folded stack of given node
+     * @param result
+     */
+    private static void addFoldedStacks(CallNode node, String stack, List<String> result) {
+        if (node.selfCycles > 0) {
+            result.add(stack + " " + node.selfCycles);
+        }
+        for (CallNode child : node.children.values()) {
+            addFoldedStacks(child, stack + ";" + child.name, result);
+        }
+    }
+
+    /**
+     * Prints given node and its descendants indented by depth, with inclusive cycles computed by the last profiles
+     *
+     * @param out
+     * @param node
+     * @param indent
+     */
+    private static void printCallTree(PrintStream out, CallNode node, String indent) {
+        out.println(indent + node.name + " calls=" + node.calls + " cycles=" + node.inclusiveCycles
+                + " self=" + node.selfCycles);
+        for (CallNode child : node.children.values()) {
+            printCallTree(out, child, indent + "  ");
+        }
+    }
+
+    /**
+     * Node of the call tree: a function called through a given path of callers
+     */
+    private static class CallNode {
+        private final String name;
+        private final Map<String, CallNode> children = new LinkedHashMap<>();
+        private long calls = 0;
+        private long selfCycles = 0;
+        private long inclusiveCycles = 0;
+
+        private CallNode(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Frame of the call stack: the call tree node of the running function, the address it returns to and its LCL
+     */
+    private static class Frame {
+        private final CallNode node;
+        private final int returnAddress;
+        private final int lcl;
+
+        private Frame(CallNode node, int returnAddress, int lcl) {
+            this.node = node;
+            this.returnAddress = returnAddress;
+            this.lcl = lcl;
+        }
+    }
+
+    /**
+     * Calls, inclusive and exclusive cycles of a function
+     */
+    private static class FunctionProfile {
+        private long calls = 0;
+        private long inclusiveCycles = 0;
+        private long exclusiveCycles = 0;
+    }
+}
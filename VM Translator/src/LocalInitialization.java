@@ -0,0 +1,83 @@
+/**
+ * Represents the ways a function prologue sets its local variables to 0, with their costs in instructions
+ * of the ROM and in cycles per call:
+ * PUSHES pushes 0 for each variable, STORES writes 0 to each variable walking from SP and then moves SP once,
+ * LOOP moves SP first and zeroes the variables in a loop of the prologue, and ROUTINE jumps into an unrolled
+ * routine of the helper library at the entry zeroing given number of variables.
+ */
+public enum LocalInitialization {
+    PUSHES,
+    STORES,
+    LOOP,
+    ROUTINE;
+
+    /**
+     * Max number of variables pushed one by one
+     */
+    public static final int maxPushedVars = 2;
+    /**
+     * Max number of variables stored without a loop
+     */
+    public static final int maxStoredVars = 8;
+    /**
+     * Max number of variables zeroed by the shared routine, which has got one entry per number of variables
+     */
+    public static final int maxRoutineVars = 8;
+
+    /**
+     * Returns the initialization of given number of local variables: the fastest one up to max stored variables,
+     * then the loop, or with the shared routine the smallest one
+     *
+     * @param nVars         number of local variables
+     * @param sharedRoutine true if the shared routine of the helper library can be used
+     * @return the initialization of given number of local variables
+     */
+    public static LocalInitialization of(int nVars, boolean sharedRoutine) {
+        if (sharedRoutine && nVars > 1 && nVars <= maxRoutineVars) {
+            return ROUTINE;
+        }
+        if (nVars <= maxPushedVars) {
+            return PUSHES;
+        }
+        return nVars <= maxStoredVars ? STORES : LOOP;
+    }
+
+    /**
+     * Returns the number of instructions of the prologue initializing given number of variables,
+     * not counting the shared routine
+     *
+     * @param nVars
+     * @return the number of instructions of the initialization
+     */
+    public int romCost(int nVars) {
+        switch (this) {
+            case PUSHES:
+                return 4 * nVars;
+            case STORES:
+                return 2 * nVars + 4;
+            case LOOP:
+                return 9;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Returns the number of cycles of the initialization of given number of variables
+     *
+     * @param nVars
+     * @return the number of cycles of the initialization
+     */
+    public int cycleCost(int nVars) {
+        switch (this) {
+            case PUSHES:
+                return 4 * nVars;
+            case STORES:
+                return 2 * nVars + 4;
+            case LOOP:
+                return 5 * nVars + 4;
+            default:
+                return 4 * nVars + 6;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Represents formats of the translated program: Hack assembly, Hack machine code as lines of 16 binary digits
+ * or a ROM image of 2 bytes per instruction, most significant byte first
+ */
+public enum OutputFormat {
+    ASM(".asm"),
+    HACK(".hack"),
+    ROM(".rom");
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the extension of the output file, with the dot
+     *
+     * @return the extension of the output file
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Represents a peephole optimizer of Hack assembly code.
+ * A window slides over the instructions, the enabled rules are tried in their declaration order
+ * at the window head. Comments are kept, labels close the window as they are jump targets.
+ * Code can be fed in pieces: only a window ahead and a window behind the current position are held in memory.
+ */
+public class PeepholeOptimizer {
+    private final Set<PeepholeRule> rules;
+    private final int maxWindowSize;
+    private final Map<PeepholeRule, Integer> hitCounts = new EnumMap<>(PeepholeRule.class);
+    private final Deque<String> input = new ArrayDeque<>();
+    private final Deque<String> output = new ArrayDeque<>();
+    private int outputInstructionsCount = 0;
+
+    /**
+     * Creates a peephole optimizer applying given rules
+     *
+     * @param rules
+     */
+    public PeepholeOptimizer(Set<PeepholeRule> rules) {
+        this.rules = rules.isEmpty() ? EnumSet.noneOf(PeepholeRule.class) : EnumSet.copyOf(rules);
+        this.maxWindowSize = this.rules.stream().mapToInt(PeepholeRule::getWindowSize).max().orElse(0);
+        for (PeepholeRule rule : this.rules) {
+            hitCounts.put(rule, 0);
+        }
+    }
+
+    /**
+     * Returns optimized assembly code lines corresponding to given assembly code.
+     * Each given element may contain several lines.
+     *
+     * @param asmCode
+     * @return optimized assembly code lines
+     */
+    public List<String> optimize(List<String> asmCode) {
+        List<String> result = new ArrayList<>();
+        for (String fragment : asmCode) {
+            feed(fragment, result::add);
+        }
+        flush(result::add);
+        return result;
+    }
+
+    /**
+     * Feeds given assembly code, which may contain several lines, to the optimizer.
+     * Optimized lines which can no longer be rewritten are passed to given consumer.
+     *
+     * @param asmCode
+     * @param asmConsumer
+     */
+    public void feed(String asmCode, Consumer<String> asmConsumer) {
+        asmCode.lines().forEach(input::addLast);
+        while (hasFullWindow()) {
+            step();
+        }
+        release(maxWindowSize, asmConsumer);
+    }
+
+    /**
+     * Optimizes the code left and passes it to given consumer
+     *
+     * @param asmConsumer
+     */
+    public void flush(Consumer<String> asmConsumer) {
+        while (!input.isEmpty()) {
+            step();
+        }
+        release(0, asmConsumer);
+    }
+
+    /**
+     * Returns the number of rewrites made by each rule
+     *
+     * @return the number of rewrites made by each rule
+     */
+    public Map<PeepholeRule, Integer> getHitCounts() {
+        return hitCounts;
+    }
+
+    /**
+     * Returns true if the input holds enough lines for any rule to be decided at its head,
+     * i.e. max window size instructions or a label closing the window
+     *
+     * @return true if the input holds enough lines for any rule to be decided at its head
+     */
+    private boolean hasFullWindow() {
+        int instructionsCount = 0;
+        for (String line : input) {
+            if (isLabel(line) || instructionsCount >= maxWindowSize) {
+                return true;
+            }
+            if (isInstruction(line)) {
+                instructionsCount++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tries the rules at the input head, moves the head line to output if none matches
+     */
+    private void step() {
+        if (!isInstruction(input.peekFirst()) || !rewriteHead()) {
+            moveToOutput(input.pollFirst());
+        }
+    }
+
+    /**
+     * Passes output lines to given consumer, keeping given number of instructions for backtracking
+     *
+     * @param keptInstructionsCount
+     * @param asmConsumer
+     */
+    private void release(int keptInstructionsCount, Consumer<String> asmConsumer) {
+        while (!output.isEmpty() && outputInstructionsCount > keptInstructionsCount) {
+            String line = output.pollFirst();
+            if (isInstruction(line)) {
+                outputInstructionsCount--;
+            }
+            asmConsumer.accept(line);
+        }
+        if (keptInstructionsCount == 0) {
+            output.forEach(asmConsumer);
+            output.clear();
+        }
+    }
+
+    /**
+     * Tries the rules on the window starting at the input head.
+     * On match the window is replaced and the last instructions of output are moved back to the input,
+     * so that rules can match again with the rewritten code.
+     *
+     * @return true if a rule matched
+     */
+    private boolean rewriteHead() {
+        List<String> window = instructionWindow();
+        for (PeepholeRule rule : rules) {
+            if (window.size() < rule.getWindowSize()) {
+                continue;
+            }
+            List<String> replacement = rule.rewrite(window.subList(0, rule.getWindowSize()));
+            if (replacement != null) {
+                hitCounts.merge(rule, 1, Integer::sum);
+                replace(rule.getWindowSize(), replacement);
+                backtrack();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns up to max window size instructions from the input head, skipping comments and stopping at a label
+     *
+     * @return instructions from the input head
+     */
+    private List<String> instructionWindow() {
+        List<String> window = new ArrayList<>();
+        Iterator<String> iterator = input.iterator();
+        while (iterator.hasNext() && window.size() < maxWindowSize) {
+            String line = iterator.next();
+            if (isLabel(line)) {
+                break;
+            }
+            if (isInstruction(line)) {
+                window.add(line);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Replaces given number of instructions at the input head by given replacement.
+     * Comments found in between are moved to output.
+     *
+     * @param instructionsCount
+     * @param replacement
+     */
+    private void replace(int instructionsCount, List<String> replacement) {
+        int removed = 0;
+        while (removed < instructionsCount) {
+            String line = input.pollFirst();
+            if (isInstruction(line)) {
+                removed++;
+            } else {
+                moveToOutput(line);
+            }
+        }
+        for (int i = replacement.size() - 1; i >= 0; i--) {
+            input.addFirst(replacement.get(i));
+        }
+    }
+
+    /**
+     * Moves the last instructions of output back to the input head, up to max window size of them
+     */
+    private void backtrack() {
+        int moved = 0;
+        while (!output.isEmpty() && moved < maxWindowSize) {
+            String line = output.peekLast();
+            if (isLabel(line)) {
+                break;
+            }
+            input.addFirst(output.pollLast());
+            if (isInstruction(line)) {
+                outputInstructionsCount--;
+                moved++;
+            }
+        }
+    }
+
+    /**
+     * Appends given line to output
+     *
+     * @param line
+     */
+    private void moveToOutput(String line) {
+        output.addLast(line);
+        if (isInstruction(line)) {
+            outputInstructionsCount++;
+        }
+    }
+
+    /**
+     * Returns true if given line is an instruction, i.e. neither a comment nor a label
+     *
+     * @param line
+     * @return true if given line is an instruction
+     */
+    private static boolean isInstruction(String line) {
+        return !line.isEmpty() && !line.startsWith("//") && !isLabel(line);
+    }
+
+    /**
+     * Returns true if given line is a label
+     *
+     * @param line
+     * @return true if given line is a label
+     */
+    private static boolean isLabel(String line) {
+        return line.startsWith("(");
+    }
+}
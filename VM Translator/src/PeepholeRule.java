@@ -0,0 +1,157 @@
+import java.util.List;
+
+/**
+ * Represents rewrite rules of the peephole optimizer.
+ * Each rule matches a window of consecutive instructions and returns its replacement, or null if it doesn't match.
+ * A rule which changes the A-register value requires the next instruction to be an A-instruction,
+ * i.e. the window includes that instruction and the replacement keeps it.
+ */
+public enum PeepholeRule {
+    /**
+     * PUSH D immediately followed by POP D: D already holds the value
+     */
+    PUSH_POP(11) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            if (window.subList(0, 10).equals(List.of("@SP", "A=M", "M=D", "@SP", "M=M+1", "@SP", "M=M-1", "@SP", "A=M", "D=M"))
+                    && isAInstruction(window.get(10))) {
+                return List.of(window.get(10));
+            }
+            return null;
+        }
+    },
+    /**
+     * PUSH D immediately followed by POP A: A gets the value of D
+     */
+    PUSH_POP_A(10) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            if (window.equals(List.of("@SP", "A=M", "M=D", "@SP", "M=M+1", "@SP", "M=M-1", "@SP", "A=M", "A=M"))) {
+                return List.of("A=D");
+            }
+            return null;
+        }
+    },
+    /**
+     * PUSH D as SP++ first and storing to SP - 1 after
+     */
+    PUSH_D(6) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            if (window.subList(0, 5).equals(List.of("@SP", "A=M", "M=D", "@SP", "M=M+1"))
+                    && isAInstruction(window.get(5))) {
+                return List.of("@SP", "AM=M+1", "A=A-1", "M=D", window.get(5));
+            }
+            return null;
+        }
+    },
+    /**
+     * Increment immediately followed by decrement of the same memory, or vice versa
+     */
+    INC_DEC(2) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            if (window.equals(List.of("M=M+1", "M=M-1")) || window.equals(List.of("M=M-1", "M=M+1"))) {
+                return List.of();
+            }
+            return null;
+        }
+    },
+    /**
+     * A-instruction immediately overridden by another one
+     */
+    DEAD_A_LOAD(2) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            if (isAInstruction(window.get(0)) && isAInstruction(window.get(1))) {
+                return List.of(window.get(1));
+            }
+            return null;
+        }
+    },
+    /**
+     * A-instruction repeated while A-register is left untouched in between
+     */
+    REDUNDANT_A_LOAD(3) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            String middle = window.get(1);
+            if (isAInstruction(window.get(0)) && window.get(0).equals(window.get(2))
+                    && !isAInstruction(middle) && !writesA(middle) && !middle.contains(";")) {
+                return List.of(window.get(0), middle);
+            }
+            return null;
+        }
+    },
+    /**
+     * Memory increment or decrement followed by loading the result to A-register
+     */
+    PRE_INC_DEC(2) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            if (window.equals(List.of("M=M+1", "A=M"))) {
+                return List.of("AM=M+1");
+            }
+            if (window.equals(List.of("M=M-1", "A=M"))) {
+                return List.of("AM=M-1");
+            }
+            return null;
+        }
+    },
+    /**
+     * Storing D-register to memory followed by loading the same memory to D-register, or vice versa
+     */
+    STORE_LOAD(2) {
+        @Override
+        List<String> rewrite(List<String> window) {
+            if (window.equals(List.of("M=D", "D=M")) || window.equals(List.of("D=M", "M=D"))) {
+                return List.of(window.get(0));
+            }
+            return null;
+        }
+    };
+
+    private final int windowSize;
+
+    PeepholeRule(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the number of instructions matched by this rule
+     *
+     * @return the number of instructions matched by this rule
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Returns the replacement of given window of instructions, or null if the rule doesn't match
+     *
+     * @param window
+     * @return the replacement of given window of instructions, or null if the rule doesn't match
+     */
+    abstract List<String> rewrite(List<String> window);
+
+    /**
+     * Returns true if given instruction is an A-instruction
+     *
+     * @param instruction
+     * @return true if given instruction is an A-instruction
+     */
+    private static boolean isAInstruction(String instruction) {
+        return instruction.startsWith("@");
+    }
+
+    /**
+     * Returns true if given C-instruction writes A-register
+     *
+     * @param instruction
+     * @return true if given C-instruction writes A-register
+     */
+    private static boolean writesA(String instruction) {
+        int equalsIndex = instruction.indexOf("=");
+        return equalsIndex > 0 && instruction.substring(0, equalsIndex).contains("A");
+    }
+}
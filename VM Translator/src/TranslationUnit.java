@@ -0,0 +1,94 @@
+/**
+ * Represents the translation context of a single VM file: its name, the function being translated,
+ * the code generation options, the counter of generated labels
+ * and whether the stack top is held in D-register instead of memory.
+ * Each file gets its own unit, so that files can be translated concurrently.
+ */
+public class TranslationUnit {
+    private final String fileName;
+    private final TranslatorOptions options;
+    private String functionName;
+    private int labelCounter = 1;
+    private boolean stackTopInD = false;
+
+    /**
+     * Creates the translation unit of given file name.
+     * Until the first function command the file name stands for the function name.
+     *
+     * @param fileName
+     * @param options
+     */
+    public TranslationUnit(String fileName, TranslatorOptions options) {
+        this.fileName = fileName;
+        this.options = options;
+        this.functionName = fileName;
+    }
+
+    /**
+     * Returns the VM file name, without extension
+     *
+     * @return the VM file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the code generation options
+     *
+     * @return the code generation options
+     */
+    public TranslatorOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the name of the function being translated
+     *
+     * @return the name of the function being translated
+     */
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    /**
+     * Sets the name of the function being translated
+     *
+     * @param functionName
+     */
+    public void setFunctionName(String functionName) {
+        this.functionName = functionName;
+    }
+
+    /**
+     * Returns a new label of given kind in the form "function$kind.N".
+     * Labels are unique within the program, as function names are, and the same for every translation,
+     * so identical input always gives identical output.
+     *
+     * @param kind
+     * @return a new label of given kind
+     */
+    public String newLabel(String kind) {
+        String result = functionName + "$" + kind + "." + labelCounter;
+        labelCounter++;
+        return result;
+    }
+
+    /**
+     * Returns true if the stack top is held in D-register and not yet stored to the stack
+     *
+     * @return true if the stack top is held in D-register
+     */
+    public boolean isStackTopInD() {
+        return stackTopInD;
+    }
+
+    /**
+     * Sets if the stack top is held in D-register
+     *
+     * @param stackTopInD
+     */
+    public void setStackTopInD(boolean stackTopInD) {
+        this.stackTopInD = stackTopInD;
+    }
+}
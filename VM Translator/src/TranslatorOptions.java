@@ -0,0 +1,299 @@
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Represents code generation and input/output options of the translator
+ */
+public class TranslatorOptions {
+    private boolean sharedCallReturn = false;
+    private boolean sharedHelpers = false;
+    private boolean foldingConstants = false;
+    private boolean cachingStackTop = false;
+    private boolean tailCalls = false;
+    private boolean treeShaking = false;
+    private int inliningBudget = 0;
+    private Set<PeepholeRule> peepholeRules = EnumSet.noneOf(PeepholeRule.class);
+    private boolean streaming = false;
+    private boolean watching = false;
+    private boolean reporting = false;
+    private OutputFormat outputFormat = OutputFormat.ASM;
+    private Path cacheDirectory = null;
+    private long cacheMaxSize = 64L * 1024 * 1024;
+
+    /**
+     * Returns options with all optimizations turned off
+     *
+     * @return options with all optimizations turned off
+     */
+    public static TranslatorOptions defaults() {
+        return new TranslatorOptions();
+    }
+
+    /**
+     * Returns true if CALL and RETURN commands jump to global call and return routines
+     * instead of inlining the whole frame handling at every site
+     *
+     * @return true if CALL and RETURN commands use shared routines
+     */
+    public boolean isSharedCallReturn() {
+        return sharedCallReturn;
+    }
+
+    /**
+     * Sets if CALL and RETURN commands use shared routines
+     *
+     * @param sharedCallReturn
+     */
+    public void setSharedCallReturn(boolean sharedCallReturn) {
+        this.sharedCallReturn = sharedCallReturn;
+    }
+
+    /**
+     * Returns true if comparisons, binary arithmetic and pointed segment access
+     * are made as calls into the helper library emitted once per program
+     *
+     * @return true if shared helpers are used
+     */
+    public boolean isSharedHelpers() {
+        return sharedHelpers;
+    }
+
+    /**
+     * Sets if shared helpers are used
+     *
+     * @param sharedHelpers
+     */
+    public void setSharedHelpers(boolean sharedHelpers) {
+        this.sharedHelpers = sharedHelpers;
+    }
+
+    /**
+     * Returns true if constant expressions are evaluated at translation time
+     * and constants are pushed with the shortest sequence for each value
+     *
+     * @return true if constant expressions are folded
+     */
+    public boolean isFoldingConstants() {
+        return foldingConstants;
+    }
+
+    /**
+     * Sets if constant expressions are folded
+     *
+     * @param foldingConstants
+     */
+    public void setFoldingConstants(boolean foldingConstants) {
+        this.foldingConstants = foldingConstants;
+    }
+
+    /**
+     * Returns true if the stack top is held in D-register across VM commands,
+     * so that a value pushed and then consumed by the next command is never stored to the stack
+     *
+     * @return true if the stack top is cached in D-register
+     */
+    public boolean isCachingStackTop() {
+        return cachingStackTop;
+    }
+
+    /**
+     * Sets if the stack top is cached in D-register
+     *
+     * @param cachingStackTop
+     */
+    public void setCachingStackTop(boolean cachingStackTop) {
+        this.cachingStackTop = cachingStackTop;
+    }
+
+    /**
+     * Returns true if a call followed by return reuses the frame of the caller
+     *
+     * @return true if a call followed by return reuses the frame of the caller
+     */
+    public boolean isTailCalls() {
+        return tailCalls;
+    }
+
+    /**
+     * Sets if a call followed by return reuses the frame of the caller
+     *
+     * @param tailCalls
+     */
+    public void setTailCalls(boolean tailCalls) {
+        this.tailCalls = tailCalls;
+    }
+
+    /**
+     * Returns true if functions unreachable from Sys.init are stripped from the program
+     *
+     * @return true if unreachable functions are stripped
+     */
+    public boolean isTreeShaking() {
+        return treeShaking;
+    }
+
+    /**
+     * Sets if unreachable functions are stripped
+     *
+     * @param treeShaking
+     */
+    public void setTreeShaking(boolean treeShaking) {
+        this.treeShaking = treeShaking;
+    }
+
+    /**
+     * Returns the max number of commands of the functions inlined at their call sites, 0 if inlining is turned off
+     *
+     * @return the max number of commands of inlined functions
+     */
+    public int getInliningBudget() {
+        return inliningBudget;
+    }
+
+    /**
+     * Sets the max number of commands of inlined functions, 0 to turn inlining off
+     *
+     * @param inliningBudget
+     */
+    public void setInliningBudget(int inliningBudget) {
+        this.inliningBudget = inliningBudget;
+    }
+
+    /**
+     * Returns the rules applied by the peephole optimizer, none if the optimizer is turned off
+     *
+     * @return the rules applied by the peephole optimizer
+     */
+    public Set<PeepholeRule> getPeepholeRules() {
+        return peepholeRules;
+    }
+
+    /**
+     * Sets the rules applied by the peephole optimizer
+     *
+     * @param peepholeRules
+     */
+    public void setPeepholeRules(Set<PeepholeRule> peepholeRules) {
+        this.peepholeRules = peepholeRules;
+    }
+
+    /**
+     * Returns true if VM files are translated one command at a time, straight from the input to the output file
+     *
+     * @return true if VM files are translated one command at a time
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets if VM files are translated one command at a time
+     *
+     * @param streaming
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns true if the translator keeps running and retranslates VM files on change
+     *
+     * @return true if the translator keeps running and retranslates VM files on change
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Sets if the translator keeps running and retranslates VM files on change
+     *
+     * @param watching
+     */
+    public void setWatching(boolean watching) {
+        this.watching = watching;
+    }
+
+    /**
+     * Returns true if a cost report of the translated program is printed
+     *
+     * @return true if a cost report of the translated program is printed
+     */
+    public boolean isReporting() {
+        return reporting;
+    }
+
+    /**
+     * Sets if a cost report of the translated program is printed
+     *
+     * @param reporting
+     */
+    public void setReporting(boolean reporting) {
+        this.reporting = reporting;
+    }
+
+    /**
+     * Returns the format of the output file
+     *
+     * @return the format of the output file
+     */
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Sets the format of the output file
+     *
+     * @param outputFormat
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * Returns the directory of the translated files cache, or null if the cache is turned off
+     *
+     * @return the directory of the translated files cache
+     */
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Sets the directory of the translated files cache
+     *
+     * @param cacheDirectory
+     */
+    public void setCacheDirectory(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Returns the max total size of the translated files cache in bytes
+     *
+     * @return the max total size of the translated files cache in bytes
+     */
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    /**
+     * Sets the max total size of the translated files cache in bytes
+     *
+     * @param cacheMaxSize
+     */
+    public void setCacheMaxSize(long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    /**
+     * Returns a key of the options which change the code generated for a single file
+     *
+     * @return a key of the options which change the code generated for a single file
+     */
+    public String codeGenerationKey() {
+        return "sharedCallReturn=" + sharedCallReturn + ",sharedHelpers=" + sharedHelpers
+                + ",foldingConstants=" + foldingConstants + ",cachingStackTop=" + cachingStackTop
+                + ",tailCalls=" + tailCalls;
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.Objects;
+
+/**
+ * Represents a parsed VM command: an operation with its segment, int operand and symbol id, when applicable.
+ * The symbol id refers to the table which interned the name, so commands of different tables are compared by name.
+ */
+public class VMCommand {
+    public static final int NO_SYMBOL = -1;
+
+    private final VMOpcode opcode;
+    private final VMSegment segment;
+    private final int operand;
+    private final int symbol;
+    private final VMSymbols symbols;
+
+    /**
+     * Creates a VM command without function or label name
+     *
+     * @param opcode
+     * @param segment segment of push and pop, otherwise null
+     * @param operand index of push and pop, otherwise 0
+     */
+    public VMCommand(VMOpcode opcode, VMSegment segment, int operand) {
+        this(opcode, segment, operand, NO_SYMBOL, null);
+    }
+
+    /**
+     * Creates a VM command
+     *
+     * @param opcode
+     * @param segment segment of push and pop, otherwise null
+     * @param operand index of push and pop, nVars of function, nArgs of call, otherwise 0
+     * @param symbol  id of function or label name, otherwise NO_SYMBOL
+     * @param symbols table of given symbol id, otherwise null
+     */
+    public VMCommand(VMOpcode opcode, VMSegment segment, int operand, int symbol, VMSymbols symbols) {
+        this.opcode = opcode;
+        this.segment = segment;
+        this.operand = operand;
+        this.symbol = symbol;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Returns the operation of the command
+     *
+     * @return the operation of the command
+     */
+    public VMOpcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the segment of push and pop command
+     *
+     * @return the segment of push and pop command, otherwise null
+     */
+    public VMSegment getSegment() {
+        return segment;
+    }
+
+    /**
+     * Returns the int operand of the command: index of push and pop, nVars of function, nArgs of call
+     *
+     * @return the int operand of the command
+     */
+    public int getOperand() {
+        return operand;
+    }
+
+    /**
+     * Returns the id of function or label name of the command
+     *
+     * @return the id of function or label name of the command, otherwise NO_SYMBOL
+     */
+    public int getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns the table of the symbol id of the command
+     *
+     * @return the table of the symbol id, or null if the command has got no symbol
+     */
+    public VMSymbols getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the function or label name of the command
+     *
+     * @return the function or label name of the command, or null if the command has got no symbol
+     */
+    public String getSymbolName() {
+        return symbol == NO_SYMBOL ? null : symbols.name(symbol);
+    }
+
+    /**
+     * Returns the command as VM language line
+     *
+     * @return the command as VM language line
+     */
+    @Override
+    public String toString() {
+        switch (opcode) {
+            case PUSH:
+            case POP:
+                return opcode.getKeyword() + " " + segment.getKeyword() + " " + operand;
+            case FUNCTION:
+            case CALL:
+                return opcode.getKeyword() + " " + getSymbolName() + " " + operand;
+            case LABEL:
+            case GOTO:
+            case IF_GOTO:
+                return opcode.getKeyword() + " " + getSymbolName();
+        }
+        return opcode.getKeyword();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VMCommand)) {
+            return false;
+        }
+        VMCommand other = (VMCommand) o;
+        if (opcode != other.opcode || segment != other.segment || operand != other.operand) {
+            return false;
+        }
+        if (symbols == other.symbols) {
+            return symbol == other.symbol;
+        }
+        return Objects.equals(getSymbolName(), other.getSymbolName());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(opcode, segment, operand, getSymbolName());
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Represents a constant folding pass over a stream of VM commands.
+ * Pushes of constants are held back while arithmetic, logical and comparison commands can be evaluated
+ * on them at translation time, and the results are passed on as pushes of constants, which may be negative.
+ * Values wrap to 16 bits and comparisons follow the generated code, i.e. the sign of the wrapped difference.
+ * Any other command passes the held pushes on first, so the folding never crosses a label, jump or call.
+ */
+public class VMConstantFolder implements Consumer<VMCommand> {
+    private static final int maxHeldConstants = 16;
+
+    private final Consumer<VMCommand> downstream;
+    private final Deque<Integer> constants = new ArrayDeque<>();
+
+    /**
+     * Creates a constant folder passing the folded commands to given consumer
+     *
+     * @param downstream
+     */
+    public VMConstantFolder(Consumer<VMCommand> downstream) {
+        this.downstream = downstream;
+    }
+
+    /**
+     * Returns given VM commands with constant expressions folded
+     *
+     * @param commands
+     * @return given VM commands with constant expressions folded
+     */
+    public static List<VMCommand> fold(List<VMCommand> commands) {
+        List<VMCommand> result = new ArrayList<>(commands.size());
+        VMConstantFolder folder = new VMConstantFolder(result::add);
+        commands.forEach(folder);
+        folder.flush();
+        return result;
+    }
+
+    /**
+     * Folds given command into the held constants if possible, otherwise passes on the held constants and the command
+     *
+     * @param command
+     */
+    @Override
+    public void accept(VMCommand command) {
+        VMOpcode opcode = command.getOpcode();
+        if (opcode == VMOpcode.PUSH && command.getSegment() == VMSegment.CONSTANT) {
+            if (constants.size() == maxHeldConstants) {
+                downstream.accept(pushConstant(constants.removeFirst()));
+            }
+            constants.addLast(command.getOperand());
+        } else if (isUnary(opcode) && !constants.isEmpty()) {
+            constants.addLast(evaluate(opcode, constants.removeLast()));
+        } else if (isBinary(opcode) && constants.size() >= 2) {
+            int y = constants.removeLast();
+            int x = constants.removeLast();
+            constants.addLast(evaluate(opcode, x, y));
+        } else {
+            flush();
+            downstream.accept(command);
+        }
+    }
+
+    /**
+     * Passes on the held constants
+     */
+    public void flush() {
+        while (!constants.isEmpty()) {
+            downstream.accept(pushConstant(constants.removeFirst()));
+        }
+    }
+
+    /**
+     * Returns the value of given unary command applied to given value
+     *
+     * @param opcode NEG or NOT
+     * @param x
+     * @return the value of given unary command applied to given value
+     */
+    public static int evaluate(VMOpcode opcode, int x) {
+        return (short) (opcode == VMOpcode.NEG ? -x : ~x);
+    }
+
+    /**
+     * Returns the value of given binary command applied to given values
+     *
+     * @param opcode ADD, SUB, AND, OR, EQ, GT or LT
+     * @param x      the value below the stack top
+     * @param y      the stack top value
+     * @return the value of given binary command applied to given values
+     */
+    public static int evaluate(VMOpcode opcode, int x, int y) {
+        short difference = (short) (x - y);
+        switch (opcode) {
+            case ADD:
+                return (short) (x + y);
+            case SUB:
+                return difference;
+            case AND:
+                return (short) (x & y);
+            case OR:
+                return (short) (x | y);
+            case EQ:
+                return difference == 0 ? -1 : 0;
+            case GT:
+                return difference > 0 ? -1 : 0;
+            case LT:
+                return difference < 0 ? -1 : 0;
+        }
+        throw new IllegalArgumentException("Not a binary command: " + opcode);
+    }
+
+    /**
+     * Returns command pushing given constant
+     *
+     * @param value
+     * @return command pushing given constant
+     */
+    private static VMCommand pushConstant(int value) {
+        return new VMCommand(VMOpcode.PUSH, VMSegment.CONSTANT, value);
+    }
+
+    /**
+     * Returns true if given command pops one value and pushes one
+     *
+     * @param opcode
+     * @return true if given command is unary
+     */
+    private static boolean isUnary(VMOpcode opcode) {
+        return opcode == VMOpcode.NEG || opcode == VMOpcode.NOT;
+    }
+
+    /**
+     * Returns true if given command pops two values and pushes one
+     *
+     * @param opcode
+     * @return true if given command is binary
+     */
+    private static boolean isBinary(VMOpcode opcode) {
+        switch (opcode) {
+            case ADD:
+            case SUB:
+            case AND:
+            case OR:
+            case EQ:
+            case GT:
+            case LT:
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Represents a reader of VM files through file channels, handing their bytes to the lexer without decoding.
+ * Small files are read into a buffer at once and large ones are memory-mapped, their pages being read
+ * as the lexer reaches them. Files are read concurrently by up to 16 threads, more than processors,
+ * since reading is bound by the latency of the file system rather than by the processors.
+ */
+public class VMFileReader {
+    private static final long mappedFileMinSize = 1024 * 1024;
+    private static final int maxReadingThreads = 16;
+
+    /**
+     * Reads all given files concurrently
+     *
+     * @param vmFiles map of file name and path
+     * @return map of file name and file content
+     */
+    public static Map<String, ByteBuffer> readAll(Map<String, Path> vmFiles) {
+        Map<String, ByteBuffer> result = new HashMap<>();
+        if (vmFiles.size() <= 1) {
+            vmFiles.forEach((fileName, path) -> result.put(fileName, readUnchecked(path)));
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(vmFiles.size(), maxReadingThreads));
+        try {
+            Map<String, CompletableFuture<ByteBuffer>> futures = new HashMap<>();
+            vmFiles.forEach((fileName, path) ->
+                    futures.put(fileName, CompletableFuture.supplyAsync(() -> readUnchecked(path), executor)));
+            futures.forEach((fileName, future) -> result.put(fileName, future.join()));
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the content of given file: a memory-mapped buffer for a large file, otherwise a buffer read at once
+     *
+     * @param path
+     * @return the content of given file from the position to the limit of the buffer
+     * @throws IOException if the file can't be read or is larger than a buffer
+     */
+    public static ByteBuffer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File larger than 2 GB: " + path);
+            }
+            if (size >= mappedFileMinSize) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the buffer is full or the file ends
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Reads given file, wrapping the IO exception
+     *
+     * @param path
+     * @return the content of given file
+     */
+    private static ByteBuffer readUnchecked(Path path) {
+        try {
+            return read(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
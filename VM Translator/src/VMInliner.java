@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents a whole-program inlining of small leaf functions.
+ * A function is inlined if its body up to its only return, which is its last command, has at most the budget of commands
+ * and contains no call, label, goto or if-goto, so it's neither recursive nor needs unique labels.
+ * The body must also leave exactly one value, the return value, on the stack without popping values below
+ * its own, since the stack isn't reset by a return once inlined.
+ * At a call site inside a function the arguments are popped into extra locals of the caller, the locals of the callee
+ * are set to 0 in the next extra locals and the body is copied with its argument and local segments remapped to them.
+ * The return value is then left on the stack top as after a return. If the callee sets pointer 0 or 1, the THIS or THAT
+ * of the caller is saved in another extra local and restored after the body. The callee functions are kept.
+ */
+public class VMInliner {
+    public static final int defaultBudget = 8;
+
+    private final int budget;
+    private final Map<String, Callee> callees = new HashMap<>();
+    private int inlinedCalls = 0;
+
+    /**
+     * Creates the inlining of functions with at most given number of commands
+     *
+     * @param budget max number of commands of inlined function bodies
+     */
+    public VMInliner(int budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns given program with the calls of small leaf functions replaced by their bodies
+     *
+     * @param program map of file name and VM commands
+     * @return map of file name and VM commands with the calls inlined
+     */
+    public Map<String, List<VMCommand>> inline(Map<String, List<VMCommand>> program) {
+        for (String fileName : VMProgram.sortedFileNames(program)) {
+            findCallees(fileName, program.get(fileName));
+        }
+        Map<String, List<VMCommand>> result = new HashMap<>();
+        for (String fileName : VMProgram.sortedFileNames(program)) {
+            result.put(fileName, inlineCalls(fileName, program.get(fileName)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of the replaced call commands
+     *
+     * @return the number of the replaced call commands
+     */
+    public int getInlinedCalls() {
+        return inlinedCalls;
+    }
+
+    /**
+     * Collects the functions of given file which can be inlined
+     *
+     * @param fileName
+     * @param commands
+     */
+    private void findCallees(String fileName, List<VMCommand> commands) {
+        int start = -1;
+        for (int i = 0; i <= commands.size(); i++) {
+            if (i == commands.size() || commands.get(i).getOpcode() == VMOpcode.FUNCTION) {
+                if (start >= 0) {
+                    Callee callee = Callee.of(fileName, commands.subList(start, i), budget);
+                    if (callee != null) {
+                        callees.put(callee.functionName, callee);
+                    }
+                }
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * Returns given commands of a file with the calls of inlined functions replaced by their bodies,
+     * and the number of locals of each function increased by the extra locals it needs
+     *
+     * @param fileName
+     * @param commands
+     * @return commands with the calls inlined
+     */
+    private List<VMCommand> inlineCalls(String fileName, List<VMCommand> commands) {
+        List<VMCommand> result = new ArrayList<>(commands.size());
+        int functionIndex = -1;
+        int extraLocals = 0;
+        for (VMCommand command : commands) {
+            if (command.getOpcode() == VMOpcode.FUNCTION) {
+                addExtraLocals(result, functionIndex, extraLocals);
+                functionIndex = result.size();
+                extraLocals = 0;
+            } else if (command.getOpcode() == VMOpcode.CALL && functionIndex >= 0) {
+                Callee callee = callees.get(command.getSymbolName());
+                if (callee != null && callee.canBeInlined(fileName, command.getOperand())) {
+                    int firstLocal = result.get(functionIndex).getOperand();
+                    extraLocals = Math.max(extraLocals, callee.addBody(result, firstLocal, command.getOperand()));
+                    inlinedCalls++;
+                    continue;
+                }
+            }
+            result.add(command);
+        }
+        addExtraLocals(result, functionIndex, extraLocals);
+        return result;
+    }
+
+    /**
+     * Replaces the function command at given index by one with given number of locals more
+     *
+     * @param commands
+     * @param functionIndex index of the function command, negative if none
+     * @param extraLocals
+     */
+    private static void addExtraLocals(List<VMCommand> commands, int functionIndex, int extraLocals) {
+        if (functionIndex >= 0 && extraLocals > 0) {
+            VMCommand function = commands.get(functionIndex);
+            commands.set(functionIndex, new VMCommand(VMOpcode.FUNCTION, null,
+                    function.getOperand() + extraLocals, function.getSymbol(), function.getSymbols()));
+        }
+    }
+
+    /**
+     * Function which can be inlined: its body without the function and return commands
+     */
+    private static class Callee {
+        private static final Set<VMOpcode> controlOpcodes =
+                EnumSet.of(VMOpcode.CALL, VMOpcode.LABEL, VMOpcode.GOTO, VMOpcode.IF_GOTO, VMOpcode.RETURN);
+
+        private final String functionName;
+        private final String fileName;
+        private final int nVars;
+        private final List<VMCommand> body;
+        private final boolean usingStatic;
+        private final int maxArgument;
+        private final boolean[] settingPointer = new boolean[2];
+
+        private Callee(String functionName, String fileName, int nVars, List<VMCommand> body) {
+            this.functionName = functionName;
+            this.fileName = fileName;
+            this.nVars = nVars;
+            this.body = body;
+            int maxArgument = -1;
+            boolean usingStatic = false;
+            for (VMCommand command : body) {
+                if (command.getSegment() == VMSegment.ARGUMENT) {
+                    maxArgument = Math.max(maxArgument, command.getOperand());
+                } else if (command.getSegment() == VMSegment.STATIC) {
+                    usingStatic = true;
+                } else if (command.getSegment() == VMSegment.POINTER && command.getOpcode() == VMOpcode.POP) {
+                    settingPointer[command.getOperand()] = true;
+                }
+            }
+            this.maxArgument = maxArgument;
+            this.usingStatic = usingStatic;
+        }
+
+        /**
+         * Returns the function of given commands if it can be inlined, otherwise null
+         *
+         * @param fileName
+         * @param commands commands of a function starting with its function command
+         * @param budget   max number of commands of the body
+         * @return the function to inline or null
+         */
+        private static Callee of(String fileName, List<VMCommand> commands, int budget) {
+            int last = commands.size() - 1;
+            if (last < 1 || last - 1 > budget || commands.get(last).getOpcode() != VMOpcode.RETURN) {
+                return null;
+            }
+            List<VMCommand> body = commands.subList(1, last);
+            for (VMCommand command : body) {
+                if (controlOpcodes.contains(command.getOpcode())
+                        || command.getSegment() == VMSegment.POINTER && command.getOperand() > 1) {
+                    return null;
+                }
+            }
+            if (!leavesReturnValueOnly(body)) {
+                return null;
+            }
+            VMCommand function = commands.get(0);
+            return new Callee(function.getSymbolName(), fileName, function.getOperand(), List.copyOf(body));
+        }
+
+        /**
+         * Returns true if given straight-line body never pops below the stack of its own
+         * and leaves exactly one value
+         *
+         * @param body
+         * @return true if given body leaves only the return value on the stack
+         */
+        private static boolean leavesReturnValueOnly(List<VMCommand> body) {
+            int depth = 0;
+            for (VMCommand command : body) {
+                switch (command.getOpcode()) {
+                    case PUSH:
+                        depth++;
+                        break;
+                    case NEG:
+                    case NOT:
+                        if (depth < 1) {
+                            return false;
+                        }
+                        break;
+                    case POP:
+                        if (depth < 1) {
+                            return false;
+                        }
+                        depth--;
+                        break;
+                    default:
+                        if (depth < 2) {
+                            return false;
+                        }
+                        depth--;
+                }
+            }
+            return depth == 1;
+        }
+
+        /**
+         * Returns true if a call from given file with given number of arguments can be replaced by the body.
+         * Static variables belong to the file of the callee and arguments not passed can't be remapped.
+         *
+         * @param callerFileName
+         * @param nArgs
+         * @return true if the call can be inlined
+         */
+        private boolean canBeInlined(String callerFileName, int nArgs) {
+            return maxArgument < nArgs && (!usingStatic || fileName.equals(callerFileName));
+        }
+
+        /**
+         * Adds to given commands the body remapped to the locals of the caller starting from given index
+         *
+         * @param commands   commands of the caller
+         * @param firstLocal index of the first extra local of the caller
+         * @param nArgs      number of arguments of the call
+         * @return number of extra locals used
+         */
+        private int addBody(List<VMCommand> commands, int firstLocal, int nArgs) {
+            int firstVar = firstLocal + nArgs;
+            int nextLocal = firstVar + nVars;
+            for (int i = nArgs - 1; i >= 0; i--) {
+                commands.add(local(VMOpcode.POP, firstLocal + i));
+            }
+            for (int i = 0; i < nVars; i++) {
+                commands.add(new VMCommand(VMOpcode.PUSH, VMSegment.CONSTANT, 0));
+                commands.add(local(VMOpcode.POP, firstVar + i));
+            }
+            int[] savedPointers = new int[settingPointer.length];
+            for (int i = 0; i < settingPointer.length; i++) {
+                if (settingPointer[i]) {
+                    savedPointers[i] = nextLocal++;
+                    commands.add(new VMCommand(VMOpcode.PUSH, VMSegment.POINTER, i));
+                    commands.add(local(VMOpcode.POP, savedPointers[i]));
+                }
+            }
+            for (VMCommand command : body) {
+                if (command.getSegment() == VMSegment.ARGUMENT) {
+                    commands.add(local(command.getOpcode(), firstLocal + command.getOperand()));
+                } else if (command.getSegment() == VMSegment.LOCAL) {
+                    commands.add(local(command.getOpcode(), firstVar + command.getOperand()));
+                } else {
+                    commands.add(command);
+                }
+            }
+            for (int i = 0; i < settingPointer.length; i++) {
+                if (settingPointer[i]) {
+                    commands.add(local(VMOpcode.PUSH, savedPointers[i]));
+                    commands.add(new VMCommand(VMOpcode.POP, VMSegment.POINTER, i));
+                }
+            }
+            return nextLocal - firstLocal;
+        }
+
+        /**
+         * Returns push or pop command of given local
+         *
+         * @param opcode push or pop
+         * @param index
+         * @return push or pop command of given local
+         */
+        private static VMCommand local(VMOpcode opcode, int index) {
+            return new VMCommand(opcode, VMSegment.LOCAL, index);
+        }
+    }
+}
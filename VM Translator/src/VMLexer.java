@@ -0,0 +1,307 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents a VM lexer reading the bytes of a file in a single pass, as read or mapped by VMFileReader.
+ * Blank lines and "//" comments are skipped, tokens are separated by any whitespace and commands by "\n", "\r\n"
+ * or "\r". Opcodes, segments and operands are recognized in place, so no string is created per line or token;
+ * only function and label names are decoded to be interned in the given symbol table. A single "/" is not a comment, so it's part of a token.
+ * The bytes are read by index, so the position of the buffer doesn't change.
+ */
+class VMLexer {
+    private static final VMOpcode[] opcodes = VMOpcode.values();
+    private static final VMSegment[] segments = VMSegment.values();
+    private static final byte[][] opcodeKeywords = new byte[opcodes.length][];
+    private static final byte[][] segmentKeywords = new byte[segments.length][];
+
+    static {
+        for (int i = 0; i < opcodes.length; i++) {
+            opcodeKeywords[i] = opcodes[i].getKeyword().getBytes(StandardCharsets.US_ASCII);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segmentKeywords[i] = segments[i].getKeyword().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final ByteBuffer bytes;
+    private final VMSymbols symbols;
+    private final int end;
+    private int position;
+    private int commandStart;
+    private int tokenStart;
+    private byte[] symbolBytes = new byte[64];
+
+    /**
+     * Creates a lexer of the bytes of given buffer from its position to its limit
+     *
+     * @param bytes   VM code encoded in ASCII or UTF-8
+     * @param symbols table interning the function and label names
+     */
+    public VMLexer(ByteBuffer bytes, VMSymbols symbols) {
+        this.bytes = bytes;
+        this.symbols = symbols;
+        this.end = bytes.limit();
+        this.position = bytes.position();
+    }
+
+    /**
+     * Returns the command of given line
+     *
+     * @param line
+     * @param symbols table interning the function and label names
+     * @return the command of given line, or null if the line is blank or a comment
+     * @throws IllegalArgumentException if the line is not a valid VM command
+     */
+    public static VMCommand lexLine(String line, VMSymbols symbols) {
+        return new VMLexer(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)), symbols).next();
+    }
+
+    /**
+     * Returns the next command
+     *
+     * @return the next command, or null at the end of the bytes
+     * @throws IllegalArgumentException if the line of the next command is not a valid VM command
+     */
+    public VMCommand next() {
+        if (!nextCommand()) {
+            return null;
+        }
+        nextToken();
+        VMOpcode opcode = matchOpcode();
+        if (opcode == null) {
+            throw new IllegalArgumentException("Unknown VM command: " + command());
+        }
+        VMCommand result;
+        switch (opcode) {
+            case PUSH:
+            case POP:
+                VMSegment segment = nextToken() ? matchSegment() : null;
+                if (segment == null || (opcode == VMOpcode.POP && segment == VMSegment.CONSTANT)) {
+                    throw new IllegalArgumentException("Wrong segment: " + command());
+                }
+                result = new VMCommand(opcode, segment, nextNumber());
+                break;
+            case FUNCTION:
+            case CALL:
+                int symbol = nextSymbol();
+                result = new VMCommand(opcode, null, nextNumber(), symbol, symbols);
+                break;
+            case LABEL:
+            case GOTO:
+            case IF_GOTO:
+                result = new VMCommand(opcode, null, 0, nextSymbol(), symbols);
+                break;
+            default:
+                result = new VMCommand(opcode, null, 0);
+        }
+        if (nextToken()) {
+            throw wrongArguments();
+        }
+        return result;
+    }
+
+    /**
+     * Moves to the first token of the next command, skipping whitespace, line ends and comment lines
+     *
+     * @return true if there is a command, false at the end of the bytes
+     */
+    private boolean nextCommand() {
+        while (position < end) {
+            int b = bytes.get(position) & 0xFF;
+            if (b <= ' ') {
+                position++;
+            } else if (isCommentAt(position)) {
+                skipLine();
+            } else {
+                commandStart = position;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next token of the current command, skipping whitespace other than line ends
+     *
+     * @return true if there is a token, false at the end of the line or at a comment
+     */
+    private boolean nextToken() {
+        while (position < end && isSpaceAt(position)) {
+            position++;
+        }
+        if (position == end || isLineEndAt(position) || isCommentAt(position)) {
+            return false;
+        }
+        tokenStart = position;
+        while (position < end && (bytes.get(position) & 0xFF) > ' ' && !isCommentAt(position)) {
+            position++;
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the end of the current line
+     */
+    private void skipLine() {
+        while (position < end && !isLineEndAt(position)) {
+            position++;
+        }
+    }
+
+    /**
+     * Returns true if the byte at given index is whitespace but not a line end
+     *
+     * @param index
+     * @return true if the byte at given index is whitespace within a line
+     */
+    private boolean isSpaceAt(int index) {
+        return (bytes.get(index) & 0xFF) <= ' ' && !isLineEndAt(index);
+    }
+
+    /**
+     * Returns true if the byte at given index ends a line
+     *
+     * @param index
+     * @return true if the byte at given index is "\n" or "\r"
+     */
+    private boolean isLineEndAt(int index) {
+        byte b = bytes.get(index);
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Returns true if a comment starts at given index
+     *
+     * @param index
+     * @return true if a comment starts at given index
+     */
+    private boolean isCommentAt(int index) {
+        return bytes.get(index) == '/' && index + 1 < end && bytes.get(index + 1) == '/';
+    }
+
+    /**
+     * Returns true if the current token is given keyword
+     *
+     * @param keyword keyword in ASCII
+     * @return true if the current token is given keyword
+     */
+    private boolean tokenEquals(byte[] keyword) {
+        if (position - tokenStart != keyword.length) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length; i++) {
+            if (bytes.get(tokenStart + i) != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the operation of the current token
+     *
+     * @return the operation of the current token, or null if there is no such operation
+     */
+    private VMOpcode matchOpcode() {
+        for (int i = 0; i < opcodes.length; i++) {
+            if (tokenEquals(opcodeKeywords[i])) {
+                return opcodes[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the segment of the current token
+     *
+     * @return the segment of the current token, or null if there is no such segment
+     */
+    private VMSegment matchSegment() {
+        for (int i = 0; i < segments.length; i++) {
+            if (tokenEquals(segmentKeywords[i])) {
+                return segments[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the id of the function or label name of the next token
+     *
+     * @return the id of the next token as name
+     */
+    private int nextSymbol() {
+        if (!nextToken()) {
+            throw wrongArguments();
+        }
+        int length = position - tokenStart;
+        if (length > symbolBytes.length) {
+            symbolBytes = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            symbolBytes[i] = bytes.get(tokenStart + i);
+        }
+        return symbols.intern(new String(symbolBytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the int value of the next token, with an optional sign as for Integer.parseInt
+     *
+     * @return the int value of the next token
+     */
+    private int nextNumber() {
+        if (!nextToken()) {
+            throw wrongArguments();
+        }
+        int index = tokenStart;
+        boolean negative = bytes.get(index) == '-';
+        if (negative || bytes.get(index) == '+') {
+            index++;
+        }
+        if (index == position) {
+            throw wrongArguments();
+        }
+        long value = 0;
+        for (; index < position; index++) {
+            byte b = bytes.get(index);
+            if (b < '0' || b > '9') {
+                throw wrongArguments();
+            }
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw wrongArguments();
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw wrongArguments();
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the exception for missing, extra or wrong arguments of the command
+     *
+     * @return the exception for wrong arguments
+     */
+    private IllegalArgumentException wrongArguments() {
+        return new IllegalArgumentException("Wrong VM command arguments: " + command());
+    }
+
+    /**
+     * Returns the current command without comment and surrounding whitespace, for error messages
+     *
+     * @return the current command
+     */
+    private String command() {
+        int commandEnd = commandStart;
+        while (commandEnd < end && !isLineEndAt(commandEnd) && !isCommentAt(commandEnd)) {
+            commandEnd++;
+        }
+        byte[] command = new byte[commandEnd - commandStart];
+        for (int i = 0; i < command.length; i++) {
+            command[i] = bytes.get(commandStart + i);
+        }
+        return new String(command, StandardCharsets.UTF_8).trim();
+    }
+}
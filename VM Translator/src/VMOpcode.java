@@ -0,0 +1,67 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Represents VM command operations
+ */
+public enum VMOpcode {
+    PUSH("push"),
+    POP("pop"),
+    ADD("add"),
+    SUB("sub"),
+    NEG("neg"),
+    EQ("eq"),
+    GT("gt"),
+    LT("lt"),
+    AND("and"),
+    OR("or"),
+    NOT("not"),
+    LABEL("label"),
+    GOTO("goto"),
+    IF_GOTO("if-goto"),
+    FUNCTION("function"),
+    CALL("call"),
+    RETURN("return");
+
+    private static final Map<String, VMOpcode> byKeyword = new HashMap<>();
+
+    static {
+        for (VMOpcode opcode : values()) {
+            byKeyword.put(opcode.keyword, opcode);
+        }
+    }
+
+    private final String keyword;
+
+    VMOpcode(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * Returns the operation of given VM keyword
+     *
+     * @param keyword
+     * @return the operation of given VM keyword, or null if there is no such operation
+     */
+    public static VMOpcode of(String keyword) {
+        return byKeyword.get(keyword);
+    }
+
+    /**
+     * Returns the VM keyword of this operation
+     *
+     * @return the VM keyword of this operation
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Returns true if the operation takes a symbol, i.e. a function or label name
+     *
+     * @return true if the operation takes a symbol
+     */
+    public boolean hasSymbol() {
+        return this == LABEL || this == GOTO || this == IF_GOTO || this == FUNCTION || this == CALL;
+    }
+}
@@ -1,13 +1,14 @@
+import java.io.BufferedReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Represents a VM parser
  */
 public class VMParser {
-    private static String currentFileName = "defaultFileName";
-    private static String functionName = "defaultFunction";
-
     /**
      * Returns assembly code corresponding to given file name and content.
      * Each original vm line is included as comment just before corresponding assembly code
@@ -17,118 +18,498 @@ public class VMParser {
      * @return assembler code corresponding to given file name and content
      */
     public static List<String> parse(String fileName, List<String> vmLines) {
-        currentFileName = fileName;
-        return VMPreprocessor.process(vmLines).stream()
-                .map((vmLine) -> {
-                    String comment = "// " + vmLine + System.lineSeparator();
-                    return comment + parse(vmLine);
-                })
-                .collect(Collectors.toList());
+        return parse(fileName, vmLines, TranslatorOptions.defaults());
+    }
+
+    /**
+     * Returns assembly code corresponding to given file name and content using given code generation options.
+     * Each original vm line is included as comment just before corresponding assembly code
+     *
+     * @param fileName
+     * @param vmLines
+     * @param translatorOptions
+     * @return assembler code corresponding to given file name and content
+     */
+    public static List<String> parse(String fileName, List<String> vmLines, TranslatorOptions translatorOptions) {
+        return translate(fileName, parseCommands(vmLines), translatorOptions);
+    }
+
+    /**
+     * Returns VM commands corresponding to given file content, with names interned in a new symbol table
+     *
+     * @param vmLines
+     * @return VM commands corresponding to given file content
+     */
+    public static List<VMCommand> parseCommands(List<String> vmLines) {
+        return parseCommands(vmLines, new VMSymbols());
+    }
+
+    /**
+     * Returns VM commands corresponding to given file content
+     *
+     * @param vmLines
+     * @param symbols table interning the function and label names
+     * @return VM commands corresponding to given file content
+     */
+    public static List<VMCommand> parseCommands(List<String> vmLines, VMSymbols symbols) {
+        List<VMCommand> result = new ArrayList<>(vmLines.size());
+        for (String vmLine : vmLines) {
+            VMCommand command = VMLexer.lexLine(vmLine, symbols);
+            if (command != null) {
+                result.add(command);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns VM commands corresponding to given file content, lexed straight from its bytes,
+     * with names interned in a new symbol table
+     *
+     * @param vmCode file content from the position to the limit of the buffer
+     * @return VM commands corresponding to given file content
+     */
+    public static List<VMCommand> parseCommands(ByteBuffer vmCode) {
+        return parseCommands(vmCode, new VMSymbols());
     }
 
     /**
-     * Returns assembly code corresponding to given vm line
+     * Returns VM commands corresponding to given file content, lexed straight from its bytes
+     *
+     * @param vmCode  file content from the position to the limit of the buffer
+     * @param symbols table interning the function and label names
+     * @return VM commands corresponding to given file content
+     */
+    public static List<VMCommand> parseCommands(ByteBuffer vmCode, VMSymbols symbols) {
+        VMLexer lexer = new VMLexer(vmCode, symbols);
+        List<VMCommand> result = new ArrayList<>();
+        for (VMCommand command = lexer.next(); command != null; command = lexer.next()) {
+            result.add(command);
+        }
+        return result;
+    }
+
+    /**
+     * Returns VM command corresponding to given vm line
      *
      * @param vmLine
-     * @return assembly code corresponding to given vm line
-     */
-    private static String parse(String vmLine) {
-        String[] vmCommand = vmLine.split(" ");
-        String operation = vmCommand[0];
-        switch (operation) {
-            case "push":
-                return handlePush(vmCommand);
-            case "pop":
-                return handlePop(vmCommand);
-            case "add":
-                return handleAdd();
-            case "sub":
-                return handleSub();
-            case "neg":
+     * @return VM command corresponding to given vm line
+     */
+    public static VMCommand parseCommand(String vmLine) {
+        VMCommand command = VMLexer.lexLine(vmLine, new VMSymbols());
+        if (command == null) {
+            throw new IllegalArgumentException("Unknown VM command: " + vmLine);
+        }
+        return command;
+    }
+
+    /**
+     * Returns assembly code corresponding to given file name and VM commands using given code generation options.
+     * Each VM command is included as comment just before corresponding assembly code
+     *
+     * @param fileName
+     * @param commands
+     * @param translatorOptions
+     * @return assembler code corresponding to given file name and VM commands
+     */
+    public static List<String> translate(String fileName, List<VMCommand> commands, TranslatorOptions translatorOptions) {
+        TranslationUnit unit = new TranslationUnit(fileName, translatorOptions);
+        if (translatorOptions.isFoldingConstants()) {
+            commands = VMConstantFolder.fold(commands);
+        }
+        List<String> result = new ArrayList<>(commands.size());
+        CommandTranslator translator = new CommandTranslator(unit, result::add);
+        commands.forEach(translator);
+        translator.flush();
+        if (unit.isStackTopInD()) {
+            result.add(flushStackTop(unit));
+        }
+        return result;
+    }
+
+    /**
+     * Translates the VM code of given buffer one command at a time as it's lexed and passes the assembly code
+     * of each command to given consumer, so that no line nor list of commands is held in memory.
+     * Each VM command is included as comment just before corresponding assembly code
+     *
+     * @param fileName
+     * @param vmCode      file content from the position to the limit of the buffer
+     * @param asmConsumer
+     * @param translatorOptions
+     */
+    public static void translate(String fileName, ByteBuffer vmCode, Consumer<String> asmConsumer,
+                                 TranslatorOptions translatorOptions) {
+        TranslationUnit unit = new TranslationUnit(fileName, translatorOptions);
+        CommandTranslator translator = new CommandTranslator(unit, asmConsumer);
+        VMConstantFolder folder = translatorOptions.isFoldingConstants() ? new VMConstantFolder(translator) : null;
+        Consumer<VMCommand> commandConsumer = folder != null ? folder : translator;
+        VMLexer lexer = new VMLexer(vmCode, new VMSymbols());
+        for (VMCommand command = lexer.next(); command != null; command = lexer.next()) {
+            commandConsumer.accept(command);
+        }
+        if (folder != null) {
+            folder.flush();
+        }
+        translator.flush();
+        if (unit.isStackTopInD()) {
+            asmConsumer.accept(flushStackTop(unit));
+        }
+    }
+
+    /**
+     * Translates VM lines read from given reader one at a time and passes the assembly code of each command
+     * to given consumer, so that only the current line is held in memory.
+     * Each VM command is included as comment just before corresponding assembly code
+     *
+     * @param fileName
+     * @param vmReader
+     * @param asmConsumer
+     * @param translatorOptions
+     */
+    public static void translate(String fileName, BufferedReader vmReader, Consumer<String> asmConsumer,
+                                 TranslatorOptions translatorOptions) {
+        TranslationUnit unit = new TranslationUnit(fileName, translatorOptions);
+        CommandTranslator translator = new CommandTranslator(unit, asmConsumer);
+        VMConstantFolder folder = translatorOptions.isFoldingConstants() ? new VMConstantFolder(translator) : null;
+        VMSymbols symbols = new VMSymbols();
+        vmReader.lines()
+                .map(vmLine -> VMLexer.lexLine(vmLine, symbols))
+                .filter(Objects::nonNull)
+                .forEach(folder != null ? folder : translator);
+        if (folder != null) {
+            folder.flush();
+        }
+        translator.flush();
+        if (unit.isStackTopInD()) {
+            asmConsumer.accept(flushStackTop(unit));
+        }
+    }
+
+    /**
+     * Returns assembly code corresponding to given VM command preceded by the command as comment
+     *
+     * @param command
+     * @param unit
+     * @return assembly code corresponding to given VM command preceded by the command as comment
+     */
+    private static String translateWithComment(VMCommand command, TranslationUnit unit) {
+        String comment = "// " + command + System.lineSeparator();
+        return comment + translate(command, unit);
+    }
+
+    /**
+     * Returns assembly code corresponding to given call command followed by return, reusing the frame of the caller
+     * when possible, preceded by the command as comment
+     *
+     * @param command
+     * @param unit
+     * @return assembly code corresponding to given call command followed by return
+     */
+    private static String translateTailCallWithComment(VMCommand command, TranslationUnit unit) {
+        String comment = "// " + command + System.lineSeparator();
+        String code = ASMWriter.tailCall(command.getSymbolName(), command.getOperand(), unit.newLabel("call"))
+                + System.lineSeparator() + handleCall(command, unit);
+        if (unit.isStackTopInD()) {
+            code = flushStackTop(unit) + System.lineSeparator() + code;
+        }
+        return comment + code;
+    }
+
+    /**
+     * Returns assembly code corresponding to given VM command
+     *
+     * @param command
+     * @param unit
+     * @return assembly code corresponding to given VM command
+     */
+    private static String translate(VMCommand command, TranslationUnit unit) {
+        if (!unit.getOptions().isCachingStackTop()) {
+            return translateOnStack(command, unit);
+        }
+        String result = translateOnD(command, unit);
+        if (result != null) {
+            return result;
+        }
+        if (unit.isStackTopInD()) {
+            return flushStackTop(unit) + System.lineSeparator() + translateOnStack(command, unit);
+        }
+        return translateOnStack(command, unit);
+    }
+
+    /**
+     * Returns assembly code corresponding to given VM command, the stack being entirely in memory
+     *
+     * @param command
+     * @param unit
+     * @return assembly code corresponding to given VM command
+     */
+    private static String translateOnStack(VMCommand command, TranslationUnit unit) {
+        switch (command.getOpcode()) {
+            case PUSH:
+                return handlePush(command, unit);
+            case POP:
+                return handlePop(command, unit);
+            case ADD:
+                return handleAdd(unit);
+            case SUB:
+                return handleSub(unit);
+            case NEG:
                 return handleNeg();
-            case "not":
+            case NOT:
                 return handleNot();
-            case "or":
-                return handleOr();
-            case "and":
-                return handleAnd();
-            case "eq":
-                return handleEq();
-            case "gt":
-                return handleGt();
-            case "lt":
-                return handleLt();
-            case "label":
-                return handleLabel(vmCommand);
-            case "goto":
-                return handleGoto(vmCommand);
-            case "if-goto":
-                return handleIfGoto(vmCommand);
-            case "function":
-                return handleFunction(vmCommand);
-            case "return":
-                return handleReturn();
-            case "call":
-                return handleCall(vmCommand);
+            case OR:
+                return handleOr(unit);
+            case AND:
+                return handleAnd(unit);
+            case EQ:
+                return handleEq(unit);
+            case GT:
+                return handleGt(unit);
+            case LT:
+                return handleLt(unit);
+            case LABEL:
+                return handleLabel(command, unit);
+            case GOTO:
+                return handleGoto(command, unit);
+            case IF_GOTO:
+                return handleIfGoto(command, unit);
+            case FUNCTION:
+                return handleFunction(command, unit);
+            case RETURN:
+                return handleReturn(unit);
+            case CALL:
+                return handleCall(command, unit);
         }
         return null;
     }
 
     /**
-     * Returns assembly code corresponding to push command
+     * Returns assembly code corresponding to given VM command holding the stack top in D-register,
+     * or null if the command needs the whole stack in memory: labels, jumps, calls and returns,
+     * as well as commands translated to helper calls.
+     * Pushes load the value to D-register after storing the previously held one,
+     * arithmetic, logical and comparison commands leave their result in D-register.
+     *
+     * @param command
+     * @param unit
+     * @return assembly code corresponding to given VM command, or null if not translated
+     */
+    private static String translateOnD(VMCommand command, TranslationUnit unit) {
+        boolean sharedHelpers = unit.getOptions().isSharedHelpers();
+        VMSegment segment = command.getSegment();
+        String result;
+        switch (command.getOpcode()) {
+            case PUSH:
+                if (sharedHelpers && segment.isPointed()) {
+                    return null;
+                }
+                String load = handleLoadToD(command, unit);
+                result = unit.isStackTopInD() ? flushStackTop(unit) + System.lineSeparator() + load : load;
+                unit.setStackTopInD(true);
+                return result;
+            case POP:
+                if (!unit.isStackTopInD() || (sharedHelpers && segment.isPointed())) {
+                    return null;
+                }
+                unit.setStackTopInD(false);
+                return handleStoreD(command, unit);
+            case IF_GOTO:
+                if (!unit.isStackTopInD()) {
+                    return null;
+                }
+                unit.setStackTopInD(false);
+                return ASMWriter.ifGotoOnD(unit.getFunctionName() + "$" + command.getSymbolName());
+            case NEG:
+                result = ASM.negD();
+                break;
+            case NOT:
+                result = ASM.notD();
+                break;
+            case ADD:
+                result = ASMWriter.binaryOnD("D+M");
+                break;
+            case SUB:
+                result = ASMWriter.binaryOnD("M-D");
+                break;
+            case AND:
+                result = ASMWriter.binaryOnD("D&M");
+                break;
+            case OR:
+                result = ASMWriter.binaryOnD("D|M");
+                break;
+            case EQ:
+            case GT:
+            case LT:
+                if (sharedHelpers) {
+                    return null;
+                }
+                result = ASMWriter.compareOnD(command.getOpcode().name(), unit.newLabel("cmp"));
+                break;
+            default:
+                return null;
+        }
+        if (!unit.isStackTopInD()) {
+            result = ASMWriter.loadStackTopToD() + System.lineSeparator() + result;
+        }
+        unit.setStackTopInD(true);
+        return result;
+    }
+
+    /**
+     * Returns assembly code storing the stack top held in D-register to the stack
+     *
+     * @param unit
+     * @return assembly code storing the stack top held in D-register to the stack
+     */
+    private static String flushStackTop(TranslationUnit unit) {
+        unit.setStackTopInD(false);
+        return ASMWriter.flushStackTop();
+    }
+
+    /**
+     * Returns assembly code loading the value of given push command to D-register
      *
      * @param command
+     * @param unit
+     * @return assembly code loading the value of given push command to D-register
+     */
+    private static String handleLoadToD(VMCommand command, TranslationUnit unit) {
+        VMSegment segment = command.getSegment();
+        int index = command.getOperand();
+        switch (segment) {
+            case CONSTANT:
+                return ASMWriter.loadConstantToD(index);
+            case STATIC:
+                return ASMWriter.loadMemoryToD(unit.getFileName() + "." + index);
+            case TEMP:
+                return ASMWriter.loadMemoryToD(ASMWriter.tempAddress(index));
+            case POINTER:
+                return ASMWriter.loadMemoryToD(ASMWriter.pointerAddress(index));
+            default:
+                return ASMWriter.loadPointedToD(segment.getPointer(), index);
+        }
+    }
+
+    /**
+     * Returns assembly code storing D-register to the destination of given pop command
+     *
+     * @param command
+     * @param unit
+     * @return assembly code storing D-register to the destination of given pop command
+     */
+    private static String handleStoreD(VMCommand command, TranslationUnit unit) {
+        VMSegment segment = command.getSegment();
+        int index = command.getOperand();
+        switch (segment) {
+            case STATIC:
+                return ASMWriter.storeDToMemory(unit.getFileName() + "." + index);
+            case TEMP:
+                return ASMWriter.storeDToMemory(ASMWriter.tempAddress(index));
+            case POINTER:
+                return ASMWriter.storeDToMemory(ASMWriter.pointerAddress(index));
+            default:
+                return ASMWriter.storeDToPointed(segment.getPointer(), index);
+        }
+    }
+
+    /**
+     * Returns assembly code corresponding to push command.
+     * With shared helpers, a pointed segment is accessed through the helper library only where the call
+     * is shorter than the direct code.
+     *
+     * @param command
+     * @param unit
      * @return assembly code corresponding to push command
      */
-    private static String handlePush(String[] command) {
-        String segment = command[1];
-        String index = command[2];
+    private static String handlePush(VMCommand command, TranslationUnit unit) {
+        VMSegment segment = command.getSegment();
+        int index = command.getOperand();
+        String result = pushDirect(segment, index, unit);
+        if (unit.getOptions().isSharedHelpers() && segment.isPointed()
+                && ASMWriter.isSegmentHelperShorter(result, index)) {
+            return ASMWriter.pushViaHelper(segment.getPointer(), index, unit.newLabel("helper"));
+        }
+        return result;
+    }
+
+    /**
+     * Returns assembly code corresponding to push from given segment index without helpers
+     *
+     * @param segment
+     * @param index
+     * @param unit
+     * @return assembly code corresponding to push from given segment index
+     */
+    private static String pushDirect(VMSegment segment, int index, TranslationUnit unit) {
         switch (segment) {
-            case "constant":
+            case CONSTANT:
+                if (unit.getOptions().isFoldingConstants()) {
+                    return ASMWriter.pushConstant(index);
+                }
                 return ASMWriter.pushValue(index);
-            case "local":
+            case LOCAL:
                 return ASMWriter.pushLocal(index);
-            case "argument":
+            case ARGUMENT:
                 return ASMWriter.pushArgument(index);
-            case "this":
+            case THIS:
                 return ASMWriter.pushThis(index);
-            case "that":
+            case THAT:
                 return ASMWriter.pushThat(index);
-            case "static":
-                String address = currentFileName + "." + index;
+            case STATIC:
+                String address = unit.getFileName() + "." + index;
                 return ASMWriter.pushStatic(address);
-            case "temp":
+            case TEMP:
                 return ASMWriter.pushTemp(index);
-            case "pointer":
+            case POINTER:
                 return ASMWriter.pushPointer(index);
         }
         return null;
     }
 
     /**
-     * Returns assembly code corresponding to pop command
+     * Returns assembly code corresponding to pop command.
+     * With shared helpers, a pointed segment is accessed through the helper library only where the call
+     * is shorter than the direct code.
      *
      * @param command
+     * @param unit
      * @return assembly code corresponding to pop command
      */
-    private static String handlePop(String[] command) {
-        String segment = command[1];
-        String index = command[2];
+    private static String handlePop(VMCommand command, TranslationUnit unit) {
+        VMSegment segment = command.getSegment();
+        int index = command.getOperand();
+        String result = popDirect(segment, index, unit);
+        if (unit.getOptions().isSharedHelpers() && segment.isPointed()
+                && ASMWriter.isSegmentHelperShorter(result, index)) {
+            return ASMWriter.popViaHelper(segment.getPointer(), index, unit.newLabel("helper"));
+        }
+        return result;
+    }
+
+    /**
+     * Returns assembly code corresponding to pop to given segment index without helpers
+     *
+     * @param segment
+     * @param index
+     * @param unit
+     * @return assembly code corresponding to pop to given segment index
+     */
+    private static String popDirect(VMSegment segment, int index, TranslationUnit unit) {
         switch (segment) {
-            case "local":
+            case LOCAL:
                 return ASMWriter.popLocal(index);
-            case "argument":
+            case ARGUMENT:
                 return ASMWriter.popArgument(index);
-            case "this":
+            case THIS:
                 return ASMWriter.popThis(index);
-            case "that":
+            case THAT:
                 return ASMWriter.popThat(index);
-            case "static":
-                String address = currentFileName + "." + index;
+            case STATIC:
+                String address = unit.getFileName() + "." + index;
                 return ASMWriter.popStatic(address);
-            case "temp":
+            case TEMP:
                 return ASMWriter.popTemp(index);
-            case "pointer":
+            case POINTER:
                 return ASMWriter.popPointer(index);
         }
         return null;
@@ -137,63 +518,91 @@ public class VMParser {
     /**
      * Returns assembly code corresponding to add operation
      *
+     * @param unit
      * @return assembly code corresponding to add operation
      */
-    private static String handleAdd() {
+    private static String handleAdd(TranslationUnit unit) {
+        if (unit.getOptions().isSharedHelpers()) {
+            return ASMWriter.callHelper("ADD", unit.newLabel("helper"));
+        }
         return ASMWriter.add();
     }
 
     /**
      * Returns assembly code corresponding to sub operation
      *
+     * @param unit
      * @return assembly code corresponding to sub operation
      */
-    private static String handleSub() {
+    private static String handleSub(TranslationUnit unit) {
+        if (unit.getOptions().isSharedHelpers()) {
+            return ASMWriter.callHelper("SUB", unit.newLabel("helper"));
+        }
         return ASMWriter.sub();
     }
 
     /**
      * Returns assembly code corresponding to lt operation
      *
+     * @param unit
      * @return assembly code corresponding to lt operation
      */
-    private static String handleLt() {
-        return ASMWriter.lt();
+    private static String handleLt(TranslationUnit unit) {
+        if (unit.getOptions().isSharedHelpers()) {
+            return ASMWriter.callHelper("LT", unit.newLabel("helper"));
+        }
+        return ASMWriter.lt(unit.newLabel("cmp"));
     }
 
     /**
      * Returns assembly code corresponding to gt operation
      *
+     * @param unit
      * @return assembly code corresponding to gt operation
      */
-    private static String handleGt() {
-        return ASMWriter.gt();
+    private static String handleGt(TranslationUnit unit) {
+        if (unit.getOptions().isSharedHelpers()) {
+            return ASMWriter.callHelper("GT", unit.newLabel("helper"));
+        }
+        return ASMWriter.gt(unit.newLabel("cmp"));
     }
 
     /**
      * Returns assembly code corresponding to eq operation
      *
+     * @param unit
      * @return assembly code corresponding to eq operation
      */
-    private static String handleEq() {
-        return ASMWriter.eq();
+    private static String handleEq(TranslationUnit unit) {
+        if (unit.getOptions().isSharedHelpers()) {
+            return ASMWriter.callHelper("EQ", unit.newLabel("helper"));
+        }
+        return ASMWriter.eq(unit.newLabel("cmp"));
     }
 
     /**
      * Returns assembly code corresponding to and operation
      *
+     * @param unit
      * @return assembly code corresponding to and operation
      */
-    private static String handleAnd() {
+    private static String handleAnd(TranslationUnit unit) {
+        if (unit.getOptions().isSharedHelpers()) {
+            return ASMWriter.callHelper("AND", unit.newLabel("helper"));
+        }
         return ASMWriter.and();
     }
 
     /**
      * Returns assembly code corresponding to or operation
      *
+     * @param unit
      * @return assembly code corresponding to or operation
      */
-    private static String handleOr() {
+    private static String handleOr(TranslationUnit unit) {
+        if (unit.getOptions().isSharedHelpers()) {
+            return ASMWriter.callHelper("OR", unit.newLabel("helper"));
+        }
         return ASMWriter.or();
     }
 
@@ -219,42 +628,59 @@ public class VMParser {
      * Returns assembly code corresponding to call operation
      *
      * @param command
+     * @param unit
      * @return assembly code corresponding to call operation
      */
-    private static String handleCall(String[] command) {
-        String calleeName = command[1];
-        String nArgs = command[2];
-        return ASMWriter.call(calleeName, nArgs);
+    private static String handleCall(VMCommand command, TranslationUnit unit) {
+        String calleeName = command.getSymbolName();
+        int nArgs = command.getOperand();
+        if (unit.getOptions().isSharedCallReturn()) {
+            return ASMWriter.callViaRoutine(calleeName, nArgs, unit.newLabel("ret"));
+        }
+        return ASMWriter.call(calleeName, nArgs, unit.newLabel("ret"));
     }
 
     /**
      * Returns assembly code corresponding to return keyword
      *
+     * @param unit
      * @return assembly code corresponding to return keyword
      */
-    private static String handleReturn() {
+    private static String handleReturn(TranslationUnit unit) {
+        if (unit.getOptions().isSharedCallReturn()) {
+            return ASMWriter.retViaRoutine();
+        }
         return ASMWriter.ret();
     }
 
     /**
      * Returns assembly code corresponding to function operation
      *
+     * @param unit
      * @return assembly code corresponding to function operation
      */
-    private static String handleFunction(String[] command) {
-        functionName = command[1];
-        String nVars = command[2];
-        return ASMWriter.function(functionName, nVars);
+    private static String handleFunction(VMCommand command, TranslationUnit unit) {
+        unit.setFunctionName(command.getSymbolName());
+        int nVars = command.getOperand();
+        LocalInitialization initialization = LocalInitialization.of(nVars, unit.getOptions().isSharedHelpers());
+        String labelName = null;
+        if (initialization == LocalInitialization.LOOP) {
+            labelName = unit.newLabel("init");
+        } else if (initialization == LocalInitialization.ROUTINE) {
+            labelName = unit.newLabel("ret");
+        }
+        return ASMWriter.function(unit.getFunctionName(), nVars, initialization, labelName);
     }
 
     /**
      * Returns assembly code corresponding to if-goto operation
      *
      * @param command
+     * @param unit
      * @return assembly code corresponding to if-goto operation
      */
-    private static String handleIfGoto(String[] command) {
-        String labelName = functionName + "$" + command[1];
+    private static String handleIfGoto(VMCommand command, TranslationUnit unit) {
+        String labelName = unit.getFunctionName() + "$" + command.getSymbolName();
         return ASMWriter.ifGoto(labelName);
     }
 
@@ -262,10 +688,11 @@ public class VMParser {
      * Returns assembly code corresponding to goto keyword
      *
      * @param command
+     * @param unit
      * @return assembly code corresponding to goto keyword
      */
-    private static String handleGoto(String[] command) {
-        String labelName = functionName + "$" + command[1];
+    private static String handleGoto(VMCommand command, TranslationUnit unit) {
+        String labelName = unit.getFunctionName() + "$" + command.getSymbolName();
         return ASMWriter.goTo(labelName);
     }
 
@@ -273,10 +700,56 @@ public class VMParser {
      * Returns assembly code corresponding to label operation
      *
      * @param command
+     * @param unit
      * @return assembly code corresponding to label operation
      */
-    private static String handleLabel(String[] command) {
-        String labelName = functionName + "$" + command[1];
+    private static String handleLabel(VMCommand command, TranslationUnit unit) {
+        String labelName = unit.getFunctionName() + "$" + command.getSymbolName();
         return ASMWriter.label(labelName);
     }
+
+    /**
+     * Translator of VM commands of a file passing assembly code of each command to a consumer.
+     * With tail calls turned on, a call inside a function is held until the next command is known,
+     * so that a call followed by return reuses the frame of the caller.
+     */
+    private static class CommandTranslator implements Consumer<VMCommand> {
+        private final TranslationUnit unit;
+        private final Consumer<String> asmConsumer;
+        private boolean insideFunction = false;
+        private VMCommand pendingCall = null;
+
+        private CommandTranslator(TranslationUnit unit, Consumer<String> asmConsumer) {
+            this.unit = unit;
+            this.asmConsumer = asmConsumer;
+        }
+
+        @Override
+        public void accept(VMCommand command) {
+            if (pendingCall != null) {
+                VMCommand call = pendingCall;
+                pendingCall = null;
+                asmConsumer.accept(command.getOpcode() == VMOpcode.RETURN
+                        ? translateTailCallWithComment(call, unit)
+                        : translateWithComment(call, unit));
+            }
+            if (command.getOpcode() == VMOpcode.FUNCTION) {
+                insideFunction = true;
+            } else if (command.getOpcode() == VMOpcode.CALL && insideFunction && unit.getOptions().isTailCalls()) {
+                pendingCall = command;
+                return;
+            }
+            asmConsumer.accept(translateWithComment(command, unit));
+        }
+
+        /**
+         * Translates the held call, if any
+         */
+        public void flush() {
+            if (pendingCall != null) {
+                asmConsumer.accept(translateWithComment(pendingCall, unit));
+                pendingCall = null;
+            }
+        }
+    }
 }
@@ -1,11 +1,27 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Represents a VM program
  */
 public class VMProgram {
+    /**
+     * Prefix of the comment starting each section of the program: bootstrap, a file, end loop or shared code
+     */
+    public static final String sectionCommentPrefix = "// section: ";
 
     /**
      * Translates all given files with their content to assembler.
@@ -16,27 +32,295 @@ public class VMProgram {
      * @return assembler code corresponding to given vm files
      */
     public static List<String> toASM(Map<String, List<String>> vmFiles) {
-        List<String> result = translateAll(vmFiles);
-        if (vmFiles.keySet().size() == 1) {
+        return toASM(vmFiles, TranslatorOptions.defaults());
+    }
+
+    /**
+     * Translates all given files with their content to assembler using given code generation options.
+     * If shared call and return routines or shared helpers are used, they are appended once at the end of the program.
+     *
+     * @param vmFiles
+     * @param options
+     * @return assembler code corresponding to given vm files
+     */
+    public static List<String> toASM(Map<String, List<String>> vmFiles, TranslatorOptions options) {
+        return toASM(vmFiles, options, null);
+    }
+
+    /**
+     * Translates all given files with their content to assembler using given code generation options.
+     * Files found in given cache are not translated again.
+     *
+     * @param vmFiles
+     * @param options
+     * @param cache   cache of translated files, or null if not used
+     * @return assembler code corresponding to given vm files
+     */
+    public static List<String> toASM(Map<String, List<String>> vmFiles, TranslatorOptions options, FragmentCache cache) {
+        return translateProgram(parseAll(vmFiles), options, cache);
+    }
+
+    /**
+     * Translates given files read by VMFileReader to assembler using given code generation options,
+     * each file being lexed and translated by one task. Files found in given cache by their content
+     * are not lexed.
+     *
+     * @param vmFiles map of file name and file content
+     * @param options
+     * @param cache   cache of translated files, or null if not used
+     * @return assembler code corresponding to given files
+     */
+    public static List<String> translateFiles(Map<String, ByteBuffer> vmFiles, TranslatorOptions options,
+                                              FragmentCache cache) {
+        Map<String, List<String>> translatedFiles = vmFiles.keySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(fileName -> fileName,
+                        fileName -> translate(fileName, vmFiles.get(fileName), options, cache)));
+        return link(translatedFiles, options);
+    }
+
+    /**
+     * Translates given program of parsed files to assembler using given code generation options.
+     * Files found in given cache are not translated again.
+     *
+     * @param program map of file name and VM commands
+     * @param options
+     * @param cache   cache of translated files, or null if not used
+     * @return assembler code corresponding to given program
+     */
+    public static List<String> translateProgram(Map<String, List<VMCommand>> program, TranslatorOptions options,
+                                                FragmentCache cache) {
+        return link(translateAll(program, options, cache), options);
+    }
+
+    /**
+     * Parses all given files to VM commands concurrently, for whole-program transformations.
+     * Names are interned in a symbol table of the program.
+     *
+     * @param vmFiles map of file name and file content
+     * @return map of file name and VM commands
+     */
+    public static Map<String, List<VMCommand>> parseAll(Map<String, List<String>> vmFiles) {
+        return parseAll(vmFiles, VMParser::parseCommands);
+    }
+
+    /**
+     * Parses all given files to VM commands concurrently, lexing the bytes read by VMFileReader.
+     * Names are interned in a symbol table of the program.
+     *
+     * @param vmFiles map of file name and file content
+     * @return map of file name and VM commands
+     */
+    public static Map<String, List<VMCommand>> parseFiles(Map<String, ByteBuffer> vmFiles) {
+        return parseAll(vmFiles, VMParser::parseCommands);
+    }
+
+    /**
+     * Parses all given files concurrently with given parser, interning names in a new symbol table of the program
+     *
+     * @param vmFiles map of file name and file content
+     * @param parser  parser of a file content with a symbol table
+     * @return map of file name and VM commands
+     */
+    private static <T> Map<String, List<VMCommand>> parseAll(Map<String, T> vmFiles,
+                                                             BiFunction<T, VMSymbols, List<VMCommand>> parser) {
+        VMSymbols symbols = new VMSymbols();
+        return vmFiles.keySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(fileName -> fileName,
+                        fileName -> parser.apply(vmFiles.get(fileName), symbols)));
+    }
+
+    /**
+     * Returns given program as VM language lines, one command per line, e.g. after a whole-program transformation
+     *
+     * @param program map of file name and VM commands
+     * @return map of file name and file content
+     */
+    public static Map<String, List<String>> toVMLines(Map<String, List<VMCommand>> program) {
+        Map<String, List<String>> result = new HashMap<>();
+        program.forEach((fileName, commands) -> result.put(fileName, commands.stream()
+                .map(VMCommand::toString)
+                .collect(Collectors.toList())));
+        return result;
+    }
+
+    /**
+     * Joins the given map of file name and assembler code of translated files in file name order
+     * and adds the code of the whole program: infinite loop or bootstrap and the shared code.
+     *
+     * @param translatedFiles
+     * @param options
+     * @return assembler code of the program
+     */
+    public static List<String> link(Map<String, List<String>> translatedFiles, TranslatorOptions options) {
+        List<String> result = new ArrayList<>();
+        for (String fileName : sortedFileNames(translatedFiles)) {
+            result.add(fileSectionComment(fileName));
+            result.addAll(translatedFiles.get(fileName));
+        }
+        if (translatedFiles.keySet().size() == 1) {
             result.add(endInfiniteLoop());
         } else {
             result.add(0, bootstrap());
         }
+        Set<String> helperReferences = new HashSet<>();
+        if (options.isSharedHelpers()) {
+            result.forEach(asm -> ASMWriter.collectHelperReferences(asm, helperReferences));
+        }
+        addSharedCode(result::add, options, helperReferences);
         return result;
     }
 
     /**
-     * Translates the given map of file name and file content to assembler
+     * Translates all given files to assembler and passes the assembly code to given consumer one command at a time.
+     * Files are lexed one at a time in file name order as their commands are translated, large files being
+     * memory-mapped, so memory use doesn't depend on the program size.
+     * Bootstrap is passed first if there are more than one file.
      *
-     * @param vmFiles
-     * @return assembler code corresponding to given vm files
+     * @param vmFiles     map of file name and file path
+     * @param asmConsumer
+     * @param options
      */
-    private static List<String> translateAll(Map<String, List<String>> vmFiles) {
-        List<String> result = new ArrayList<>();
-        for (String fileName : vmFiles.keySet()) {
-            List<String> vmLines = vmFiles.get(fileName);
-            result.addAll(VMParser.parse(fileName, vmLines));
+    public static void streamASM(Map<String, Path> vmFiles, Consumer<String> asmConsumer, TranslatorOptions options) {
+        Set<String> helperReferences = new HashSet<>();
+        asmConsumer = collectingHelperReferences(asmConsumer, options, helperReferences);
+        if (vmFiles.keySet().size() > 1) {
+            asmConsumer.accept(bootstrap());
         }
+        for (String fileName : sortedFileNames(vmFiles)) {
+            ByteBuffer vmCode;
+            try {
+                vmCode = VMFileReader.read(vmFiles.get(fileName));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            asmConsumer.accept(fileSectionComment(fileName));
+            VMParser.translate(fileName, vmCode, asmConsumer, options);
+        }
+        if (vmFiles.keySet().size() == 1) {
+            asmConsumer.accept(endInfiniteLoop());
+        }
+        addSharedCode(asmConsumer, options, helperReferences);
+    }
+
+    /**
+     * Translates a single file read from given reader to assembler
+     * and passes the assembly code to given consumer one command at a time.
+     *
+     * @param fileName
+     * @param vmReader
+     * @param asmConsumer
+     * @param options
+     */
+    public static void streamASM(String fileName, BufferedReader vmReader, Consumer<String> asmConsumer, TranslatorOptions options) {
+        Set<String> helperReferences = new HashSet<>();
+        asmConsumer = collectingHelperReferences(asmConsumer, options, helperReferences);
+        asmConsumer.accept(fileSectionComment(fileName));
+        VMParser.translate(fileName, vmReader, asmConsumer, options);
+        asmConsumer.accept(endInfiniteLoop());
+        addSharedCode(asmConsumer, options, helperReferences);
+    }
+
+    /**
+     * Returns a consumer passing assembly code to given consumer and, with shared helpers, adding the helper
+     * labels it references to given set
+     *
+     * @param asmConsumer
+     * @param options
+     * @param helperReferences set of referenced helper labels
+     * @return the consumer collecting helper references
+     */
+    private static Consumer<String> collectingHelperReferences(Consumer<String> asmConsumer, TranslatorOptions options,
+                                                               Set<String> helperReferences) {
+        if (!options.isSharedHelpers()) {
+            return asmConsumer;
+        }
+        return asm -> {
+            ASMWriter.collectHelperReferences(asm, helperReferences);
+            asmConsumer.accept(asm);
+        };
+    }
+
+    /**
+     * Passes the code shared by the whole program, enabled by given options, to given consumer.
+     * Only the helpers referenced by the program are passed.
+     *
+     * @param asmConsumer
+     * @param options
+     * @param helperReferences helper labels referenced by the program
+     */
+    private static void addSharedCode(Consumer<String> asmConsumer, TranslatorOptions options,
+                                      Set<String> helperReferences) {
+        if (options.isSharedCallReturn()) {
+            asmConsumer.accept(callReturnRoutines());
+        }
+        if (options.isSharedHelpers()) {
+            asmConsumer.accept(sectionComment("helper library") + System.lineSeparator()
+                    + ASMWriter.helperLibrary(helperReferences));
+        }
+    }
+
+    /**
+     * Translates the given map of file name and VM commands to assembler.
+     * Files are translated concurrently on the common fork/join pool, each in its own translation unit,
+     * so the result is the same as a sequential translation.
+     *
+     * @param program
+     * @param options
+     * @param cache   cache of translated files, or null if not used
+     * @return map of file name and assembler code
+     */
+    private static Map<String, List<String>> translateAll(Map<String, List<VMCommand>> program,
+                                                          TranslatorOptions options, FragmentCache cache) {
+        return program.keySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(fileName -> fileName,
+                        fileName -> translate(fileName, program.get(fileName), options, cache)));
+    }
+
+    /**
+     * Translates given file to assembler, or takes it from given cache
+     *
+     * @param fileName
+     * @param commands
+     * @param options
+     * @param cache    cache of translated files, or null if not used
+     * @return assembler code corresponding to given vm file
+     */
+    private static List<String> translate(String fileName, List<VMCommand> commands, TranslatorOptions options,
+                                          FragmentCache cache) {
+        if (cache == null) {
+            return VMParser.translate(fileName, commands, options);
+        }
+        return cache.get(fileName, commands, options, () -> VMParser.translate(fileName, commands, options));
+    }
+
+    /**
+     * Lexes and translates given file content to assembler, or takes it from given cache
+     *
+     * @param fileName
+     * @param vmCode   file content from the position to the limit of the buffer
+     * @param options
+     * @param cache    cache of translated files, or null if not used
+     * @return assembler code corresponding to given vm file
+     */
+    private static List<String> translate(String fileName, ByteBuffer vmCode, TranslatorOptions options,
+                                          FragmentCache cache) {
+        Supplier<List<String>> translation =
+                () -> VMParser.translate(fileName, VMParser.parseCommands(vmCode), options);
+        if (cache == null) {
+            return translation.get();
+        }
+        return cache.get(fileName, vmCode, options, translation);
+    }
+
+    /**
+     * Returns the file names of given map in alphabetical order, so that the output doesn't depend on the map type
+     *
+     * @param vmFiles
+     * @return the file names of given map in alphabetical order
+     */
+    public static List<String> sortedFileNames(Map<String, ?> vmFiles) {
+        List<String> result = new ArrayList<>(vmFiles.keySet());
+        Collections.sort(result);
         return result;
     }
 
@@ -46,7 +330,21 @@ public class VMProgram {
      * @return assembly code for bootstrap
      */
     private static String bootstrap() {
-        return ASMWriter.bootstrap();
+        return sectionComment("bootstrap") + System.lineSeparator() + ASMWriter.bootstrap();
+    }
+
+    /**
+     * Provides assembly code for shared call and return routines
+     *
+     * @return assembly code for shared call and return routines
+     */
+    private static String callReturnRoutines() {
+        List<String> result = List.of(
+                sectionComment("call and return routines"),
+                ASMWriter.callRoutine(),
+                ASMWriter.returnRoutine()
+        );
+        return String.join(System.lineSeparator(), result);
     }
 
     /**
@@ -55,6 +353,26 @@ public class VMProgram {
      * @return assembly code for end of file infinite loop
      */
     private static String endInfiniteLoop() {
-        return ASMWriter.endInfiniteLoop();
+        return sectionComment("end loop") + System.lineSeparator() + ASMWriter.endInfiniteLoop();
+    }
+
+    /**
+     * Returns the comment starting the section of given VM file
+     *
+     * @param fileName
+     * @return the comment starting the section of given VM file
+     */
+    private static String fileSectionComment(String fileName) {
+        return sectionComment("file " + fileName + ".vm");
+    }
+
+    /**
+     * Returns the comment starting the section of given name
+     *
+     * @param sectionName
+     * @return the comment starting the section of given name
+     */
+    private static String sectionComment(String sectionName) {
+        return sectionCommentPrefix + sectionName;
     }
 }
@@ -0,0 +1,69 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Represents VM memory segments
+ */
+public enum VMSegment {
+    CONSTANT("constant", null),
+    LOCAL("local", "LCL"),
+    ARGUMENT("argument", "ARG"),
+    THIS("this", "THIS"),
+    THAT("that", "THAT"),
+    STATIC("static", null),
+    TEMP("temp", null),
+    POINTER("pointer", null);
+
+    private static final Map<String, VMSegment> byKeyword = new HashMap<>();
+
+    static {
+        for (VMSegment segment : values()) {
+            byKeyword.put(segment.keyword, segment);
+        }
+    }
+
+    private final String keyword;
+    private final String pointer;
+
+    VMSegment(String keyword, String pointer) {
+        this.keyword = keyword;
+        this.pointer = pointer;
+    }
+
+    /**
+     * Returns the segment of given VM keyword
+     *
+     * @param keyword
+     * @return the segment of given VM keyword, or null if there is no such segment
+     */
+    public static VMSegment of(String keyword) {
+        return byKeyword.get(keyword);
+    }
+
+    /**
+     * Returns the VM keyword of this segment
+     *
+     * @return the VM keyword of this segment
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Returns the base pointer of this segment
+     *
+     * @return the base pointer of this segment, or null if segment is not addressed through a pointer
+     */
+    public String getPointer() {
+        return pointer;
+    }
+
+    /**
+     * Returns true if this segment is addressed through a base pointer
+     *
+     * @return true if this segment is one of local, argument, this, that
+     */
+    public boolean isPointed() {
+        return pointer != null;
+    }
+}
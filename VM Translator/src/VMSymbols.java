@@ -0,0 +1,61 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Represents a table of interned function and label names, owned by the program or watcher parsing the commands.
+ * Each distinct name gets a unique id, so commands can refer to names by int.
+ * Only new names take a lock; ids and names are read without locking, the array of names
+ * being published through a volatile field after each new name, so files may be parsed concurrently.
+ */
+public class VMSymbols {
+    private static final int initialCapacity = 256;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[initialCapacity];
+    private int size = 0;
+
+    /**
+     * Returns the id of given name, allocating a new one for a name met for the first time
+     *
+     * @param name
+     * @return the id of given name
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ids) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            String[] table = size < names.length ? names : Arrays.copyOf(names, 2 * size);
+            table[size] = name;
+            names = table;
+            ids.put(name, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Returns the name of given id
+     *
+     * @param id
+     * @return the name of given id
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the number of interned names
+     *
+     * @return the number of interned names
+     */
+    public int size() {
+        synchronized (ids) {
+            return size;
+        }
+    }
+}
@@ -1,4 +1,10 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -7,17 +13,134 @@ import java.util.stream.Stream;
 
 /**
  * Represents a translator from VM stack-machine program to HACK assembly program
- * Usage: java VMTranslator source
- * where source is either a path to a VM file ("xxx.vm") or a folder containing one or more VM files
+ * Usage: java VMTranslator [options] source
+ * where source is either a path to a VM file ("xxx.vm"), a folder containing one or more VM files,
+ * or "-" to translate standard input to standard output
  */
 public class VMTranslator {
+    private static final String standardStreamsSource = "-";
+    private static final String standardInputFileName = "Stdin";
+    private static final String defaultCacheDirectory = ".vmcache";
+
     public static void main(String[] args) {
         validateArgs(args);
-        Path providedPath = Paths.get(args[0]);
-        Map<String, List<String>> vmFiles = readVMFiles(providedPath);
-        List<String> asmLines = VMProgram.toASM(vmFiles);
-        Path outputFilePath = buildOutputFilePath(providedPath);
-        saveFile(outputFilePath, asmLines);
+        TranslatorOptions options = parseOptions(args);
+        String source = args[args.length - 1];
+        if (source.equals(standardStreamsSource)) {
+            translateStandardStreams(options);
+            return;
+        }
+        Path providedPath = Paths.get(source);
+        OutputFormat outputFormat = options.isStreaming() ? OutputFormat.ASM : options.getOutputFormat();
+        Path outputFilePath = buildOutputFilePath(providedPath, outputFormat);
+        if (options.isWatching()) {
+            new VMWatcher(providedPath, outputFilePath, options).run();
+            return;
+        }
+        if (options.isStreaming()) {
+            streamFiles(listVMFiles(providedPath), outputFilePath, options);
+            return;
+        }
+        List<String> asmLines = translate(readVMFiles(providedPath), options);
+        if (!options.getPeepholeRules().isEmpty()) {
+            asmLines = optimize(asmLines, options.getPeepholeRules());
+        }
+        saveProgram(outputFilePath, asmLines, outputFormat);
+        if (options.isReporting()) {
+            CostReport report = new CostReport(options);
+            asmLines.forEach(report);
+            report.print(System.out);
+        }
+    }
+
+    /**
+     * Applies the whole-program transformations turned on by given options to given files
+     * and prints the number of inlined calls and the names of the stripped functions.
+     * Calls are inlined first, so that the functions no longer called are stripped.
+     *
+     * @param program map of file name and VM commands
+     * @param options
+     * @return map of file name and VM commands of the transformed program
+     */
+    private static Map<String, List<VMCommand>> transformProgram(Map<String, List<VMCommand>> program,
+                                                                 TranslatorOptions options) {
+        if (options.getInliningBudget() > 0) {
+            VMInliner inliner = new VMInliner(options.getInliningBudget());
+            program = inliner.inline(program);
+            System.out.println("Inlined calls: " + inliner.getInlinedCalls());
+        }
+        if (options.isTreeShaking()) {
+            VMTreeShaker treeShaker = new VMTreeShaker(program);
+            treeShaker.getStrippedFunctions().forEach(functionName -> System.out.println("Stripped " + functionName));
+            program = treeShaker.getReachableProgram();
+        }
+        return program;
+    }
+
+    /**
+     * Translates given map of file name and content, using the cache if turned on, in which case the cache
+     * statistics are printed. Without whole-program transformations each file is looked up by its content
+     * before it's lexed, otherwise the whole program is parsed and transformed first.
+     *
+     * @param vmFiles
+     * @param options
+     * @return assembly code lines
+     */
+    private static List<String> translate(Map<String, ByteBuffer> vmFiles, TranslatorOptions options) {
+        FragmentCache cache = options.getCacheDirectory() == null ? null
+                : new FragmentCache(options.getCacheDirectory(), options.getCacheMaxSize());
+        List<String> result;
+        if (options.isTreeShaking() || options.getInliningBudget() > 0) {
+            Map<String, List<VMCommand>> program = transformProgram(VMProgram.parseFiles(vmFiles), options);
+            result = VMProgram.translateProgram(program, options, cache);
+        } else {
+            result = VMProgram.translateFiles(vmFiles, options, cache);
+        }
+        if (cache == null) {
+            return result;
+        }
+        System.out.println("Cache hits: " + cache.getHits() + ", misses: " + cache.getMisses()
+                + ", evictions: " + cache.getEvictions());
+        return result;
+    }
+
+    /**
+     * Translates VM files of given map of file name and path one command at a time to given output file
+     *
+     * @param vmFiles
+     * @param outputFilePath
+     * @param options
+     */
+    private static void streamFiles(Map<String, Path> vmFiles, Path outputFilePath, TranslatorOptions options) {
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFilePath)) {
+            PeepholeOptimizer optimizer = buildOptimizer(options);
+            CostReport report = buildReport(options);
+            ASMStreamWriter asmWriter = new ASMStreamWriter(writer, optimizer, report);
+            VMProgram.streamASM(vmFiles, asmWriter, options);
+            asmWriter.finish();
+            printHitCounts(optimizer, System.out);
+            printReport(report, System.out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Translates VM code read from standard input one command at a time to standard output.
+     * Messages are printed to standard error.
+     *
+     * @param options
+     */
+    private static void translateStandardStreams(TranslatorOptions options) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out));
+        PeepholeOptimizer optimizer = buildOptimizer(options);
+        CostReport report = buildReport(options);
+        ASMStreamWriter asmWriter = new ASMStreamWriter(writer, optimizer, report);
+        VMProgram.streamASM(standardInputFileName, reader, asmWriter, options);
+        asmWriter.finish();
+        printHitCounts(optimizer, System.err);
+        printReport(report, System.err);
     }
 
     /**
@@ -26,12 +149,15 @@ public class VMTranslator {
      * @param args
      */
     private static void validateArgs(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Wrong number of arguments: Required 1, but provided " + args.length);
+        if (args.length < 1) {
+            System.out.println("Wrong number of arguments: Required at least 1, but provided " + args.length);
             printUsage();
             System.exit(0);
         }
-        Path inputPath = Path.of(args[0]);
+        if (args[args.length - 1].equals(standardStreamsSource)) {
+            return;
+        }
+        Path inputPath = Path.of(args[args.length - 1]);
         if (Files.isRegularFile(inputPath)) {
             if (!inputPath.getFileName().toString().endsWith(".vm")) {
                 System.out.println("Wrong file extension: Required \"vm\"");
@@ -56,57 +182,245 @@ public class VMTranslator {
     }
 
     /**
-     * Prints to the console usage information
+     * Builds translator options from the provided arguments, all but the last one being options.
+     * Exits if an option is unknown.
+     *
+     * @param args
+     * @return translator options
      */
-    private static void printUsage() {
-        System.out.println("Usage: java VMTranslator source" + System.lineSeparator());
-        System.out.println("where source is either a relative path to a VM file (\\path\\to\\folder\\xxx.vm)");
-        System.out.println("or a folder (\\path\\to\\folder\\) containing one or more VM files");
+    private static TranslatorOptions parseOptions(String[] args) {
+        TranslatorOptions options = TranslatorOptions.defaults();
+        for (int i = 0; i < args.length - 1; i++) {
+            String arg = args[i];
+            if (arg.equals("--shared-call-return")) {
+                options.setSharedCallReturn(true);
+            } else if (arg.equals("-Os")) {
+                options.setSharedCallReturn(true);
+                options.setSharedHelpers(true);
+                options.setTreeShaking(true);
+            } else if (arg.equals("-O")) {
+                options.setTreeShaking(true);
+                options.setInliningBudget(VMInliner.defaultBudget);
+                options.setFoldingConstants(true);
+                options.setCachingStackTop(true);
+                options.setTailCalls(true);
+            } else if (arg.equals("--tree-shake")) {
+                options.setTreeShaking(true);
+            } else if (arg.equals("--inline")) {
+                options.setInliningBudget(VMInliner.defaultBudget);
+            } else if (arg.startsWith("--inline=")) {
+                options.setInliningBudget(parseInliningBudget(arg.substring("--inline=".length())));
+            } else if (arg.equals("--fold-constants")) {
+                options.setFoldingConstants(true);
+            } else if (arg.equals("--stack-top-in-d")) {
+                options.setCachingStackTop(true);
+            } else if (arg.equals("--tail-calls")) {
+                options.setTailCalls(true);
+            } else if (arg.equals("--peephole")) {
+                options.setPeepholeRules(EnumSet.allOf(PeepholeRule.class));
+            } else if (arg.startsWith("--peephole=")) {
+                options.setPeepholeRules(parsePeepholeRules(arg.substring("--peephole=".length())));
+            } else if (arg.equals("--stream")) {
+                options.setStreaming(true);
+            } else if (arg.equals("--hack")) {
+                options.setOutputFormat(OutputFormat.HACK);
+            } else if (arg.equals("--rom")) {
+                options.setOutputFormat(OutputFormat.ROM);
+            } else if (arg.equals("--report")) {
+                options.setReporting(true);
+            } else if (arg.equals("--watch")) {
+                options.setWatching(true);
+            } else if (arg.equals("--cache")) {
+                options.setCacheDirectory(Path.of(defaultCacheDirectory));
+            } else if (arg.startsWith("--cache=")) {
+                options.setCacheDirectory(Path.of(arg.substring("--cache=".length())));
+            } else if (arg.startsWith("--cache-size=")) {
+                options.setCacheMaxSize(parseCacheSize(arg.substring("--cache-size=".length())));
+            } else {
+                System.out.println("Unknown option: " + arg);
+                printUsage();
+                System.exit(0);
+            }
+        }
+        return options;
     }
 
     /**
-     * Reads VM files from a given path and returns a map with file name and corresponding content
-     * If path is a file, not directory, then the result is a single entry map.
+     * Returns the cache size in bytes of given number of megabytes. Exits if it's not a positive number.
      *
-     * @param inputPath
-     * @return a map of file name and corresponding content
+     * @param megabytes
+     * @return the cache size in bytes
      */
-    private static Map<String, List<String>> readVMFiles(Path inputPath) {
-        if (Files.isRegularFile(inputPath)) {
-            return readVMFile(inputPath);
+    private static long parseCacheSize(String megabytes) {
+        try {
+            long result = Long.parseLong(megabytes);
+            if (result > 0) {
+                return result * 1024 * 1024;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
         }
-        return readVMFilesInDir(inputPath);
+        System.out.println("Wrong cache size: " + megabytes);
+        printUsage();
+        System.exit(0);
+        return 0;
     }
 
     /**
-     * Reads VM file from a given path and returns a map with file name and corresponding content
+     * Returns the inlining budget of given number of commands. Exits if it's not a positive number.
      *
-     * @param inputPath
-     * @return a map of file name and corresponding content
+     * @param commands
+     * @return the inlining budget
      */
-    private static Map<String, List<String>> readVMFile(Path inputPath) {
+    private static int parseInliningBudget(String commands) {
         try {
-            List<String> vmLines = Files.readAllLines(inputPath);
-            String fileName = getFileNameWithoutExtension(inputPath);
-            return Map.of(fileName, vmLines);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            int result = Integer.parseInt(commands);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
         }
+        System.out.println("Wrong inlining budget: " + commands);
+        printUsage();
+        System.exit(0);
+        return 0;
     }
 
     /**
-     * Reads VM files from a given path and returns a map with file name and corresponding content
+     * Returns the peephole rules of given comma separated names. Exits if a rule is unknown.
      *
-     * @param inputDirPath
+     * @param ruleNames
+     * @return the peephole rules of given comma separated names
+     */
+    private static Set<PeepholeRule> parsePeepholeRules(String ruleNames) {
+        Set<PeepholeRule> result = EnumSet.noneOf(PeepholeRule.class);
+        for (String ruleName : ruleNames.split(",")) {
+            try {
+                result.add(PeepholeRule.valueOf(ruleName.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown peephole rule: " + ruleName);
+                printUsage();
+                System.exit(0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs the peephole optimizer with given rules over given assembly code and prints hit count of each rule
+     *
+     * @param asmLines
+     * @param rules
+     * @return optimized assembly code lines
+     */
+    private static List<String> optimize(List<String> asmLines, Set<PeepholeRule> rules) {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(rules);
+        List<String> result = optimizer.optimize(asmLines);
+        printHitCounts(optimizer, System.out);
+        return result;
+    }
+
+    /**
+     * Returns the peephole optimizer of given options
+     *
+     * @param options
+     * @return the peephole optimizer of given options, or null if peephole optimization is turned off
+     */
+    private static PeepholeOptimizer buildOptimizer(TranslatorOptions options) {
+        if (options.getPeepholeRules().isEmpty()) {
+            return null;
+        }
+        return new PeepholeOptimizer(options.getPeepholeRules());
+    }
+
+    /**
+     * Returns the cost report of given options
+     *
+     * @param options
+     * @return the cost report, or null if not requested
+     */
+    private static CostReport buildReport(TranslatorOptions options) {
+        return options.isReporting() ? new CostReport(options) : null;
+    }
+
+    /**
+     * Prints given cost report to given stream
+     *
+     * @param report cost report, or null if not requested
+     * @param out
+     */
+    private static void printReport(CostReport report, PrintStream out) {
+        if (report != null) {
+            report.print(out);
+        }
+    }
+
+    /**
+     * Prints hit count of each rule of given peephole optimizer to given stream
+     *
+     * @param optimizer peephole optimizer, or null if peephole optimization is turned off
+     * @param out
+     */
+    private static void printHitCounts(PeepholeOptimizer optimizer, PrintStream out) {
+        if (optimizer != null) {
+            optimizer.getHitCounts().forEach((rule, hits) -> out.println("Peephole " + rule + ": " + hits));
+        }
+    }
+
+    /**
+     * Prints to the console usage information
+     */
+    private static void printUsage() {
+        System.out.println("Usage: java VMTranslator [options] source" + System.lineSeparator());
+        System.out.println("where source is either a relative path to a VM file (\\path\\to\\folder\\xxx.vm),");
+        System.out.println("a folder (\\path\\to\\folder\\) containing one or more VM files,");
+        System.out.println("or - to translate standard input to standard output");
+        System.out.println(System.lineSeparator() + "Options:");
+        System.out.println("  --shared-call-return   call and return through shared routines emitted once per program");
+        System.out.println("  -Os                    optimize for size: shared call/return routines, helper library and --tree-shake");
+        System.out.println("  -O                     optimize for speed: --tree-shake, --inline, --fold-constants, --stack-top-in-d and --tail-calls");
+        System.out.println("  --tree-shake           strip functions unreachable from Sys.init, not used with --stream and --watch");
+        System.out.println("  --inline[=N]           replace calls of leaf functions of at most N commands (" + VMInliner.defaultBudget + " by default) by their body,");
+        System.out.println("                         not used with --stream and --watch");
+        System.out.println("  --fold-constants       evaluate constant expressions at translation time, push 0, 1 and -1 directly");
+        System.out.println("  --stack-top-in-d       hold the stack top in D-register across commands instead of storing it");
+        System.out.println("  --tail-calls           reuse the frame of the caller for a call followed by return");
+        System.out.println("  --peephole[=RULE,...]  run the peephole optimizer with all or given rules: " + Arrays.toString(PeepholeRule.values()));
+        System.out.println("  --stream               translate one command at a time with memory use independent of program size");
+        System.out.println("  --cache[=DIR]          reuse translations of unchanged files stored in given directory (" + defaultCacheDirectory + " by default),");
+        System.out.println("                         not used with --stream");
+        System.out.println("  --cache-size=MB        max size of the cache, 64 MB by default");
+        System.out.println("  --hack                 write Hack machine code (xxx.hack) instead of assembly, not used with --stream");
+        System.out.println("  --rom                  write a ROM image (xxx.rom) of 2 bytes per instruction, not used with --stream");
+        System.out.println("  --report               print the number of instructions by file, function and command kind");
+        System.out.println("  --watch                keep running and retranslate only the changed file on every change");
+    }
+
+    /**
+     * Reads VM files from a given file or directory concurrently and returns a map with file name
+     * and corresponding content, as read by VMFileReader.
+     * If path is a file, not directory, then the result is a single entry map.
+     *
+     * @param inputPath
      * @return a map of file name and corresponding content
      */
-    public static Map<String, List<String>> readVMFilesInDir(Path inputDirPath) {
-        Map<String, List<String>> result = new HashMap<>();
-        try (Stream<Path> paths = Files.walk(inputDirPath)) {
-            Stream<Path> vmFilesPaths = paths.filter(path -> path.getFileName().toString().endsWith(".vm"));
-            vmFilesPaths.forEach((vmFilePath) -> {
-                result.putAll(readVMFile(vmFilePath));
-            });
+    public static Map<String, ByteBuffer> readVMFiles(Path inputPath) {
+        return VMFileReader.readAll(listVMFiles(inputPath));
+    }
+
+    /**
+     * Lists VM files from a given path and returns a map with file name and corresponding path, without reading them.
+     * If path is a file, not directory, then the result is a single entry map.
+     *
+     * @param inputPath
+     * @return a map of file name and corresponding path
+     */
+    public static Map<String, Path> listVMFiles(Path inputPath) {
+        Map<String, Path> result = new HashMap<>();
+        try (Stream<Path> paths = Files.walk(inputPath)) {
+            paths.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(".vm"))
+                    .forEach((vmFilePath) -> result.put(getFileNameWithoutExtension(vmFilePath), vmFilePath));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -114,14 +428,16 @@ public class VMTranslator {
     }
 
     /**
-     * Returns the ASM file path, i.e. path with file extension ".asm"
+     * Returns the output file path, i.e. path with file extension of given format, e.g. ".asm"
      *
-     * @return the ASM file path, i.e. path with file extension ".asm"
+     * @param inputFilePath
+     * @param outputFormat
+     * @return the output file path, i.e. path with file extension of given format
      */
-    private static Path buildOutputFilePath(Path inputFilePath) {
-        String outputFileName = getFileNameWithoutExtension(inputFilePath) + ".asm";
+    private static Path buildOutputFilePath(Path inputFilePath, OutputFormat outputFormat) {
+        String outputFileName = getFileNameWithoutExtension(inputFilePath) + outputFormat.getExtension();
         if (Files.isRegularFile(inputFilePath)) {
-            return Path.of(inputFilePath.getParent().toString(), outputFileName);
+            return inputFilePath.resolveSibling(outputFileName);
         }
         return Path.of(inputFilePath.toString(), outputFileName);
     }
@@ -130,9 +446,9 @@ public class VMTranslator {
      * Returns the file's name from the given path without the extension
      *
      * @param path
-     * @return
+     * @return the file's name without the extension
      */
-    private static String getFileNameWithoutExtension(Path path) {
+    public static String getFileNameWithoutExtension(Path path) {
         String fullFileName = path.getFileName().toString();
         int dotIndex = fullFileName.lastIndexOf(".");
         if (dotIndex > 0) {
@@ -141,13 +457,37 @@ public class VMTranslator {
         return fullFileName;
     }
 
+    /**
+     * Saves the provided assembly code lines to a file of given path in given format.
+     * Machine code is assembled in memory, without writing and parsing the assembly code again.
+     *
+     * @param filePath
+     * @param asmLines
+     * @param outputFormat
+     */
+    public static void saveProgram(Path filePath, List<String> asmLines, OutputFormat outputFormat) {
+        if (outputFormat == OutputFormat.ASM) {
+            saveFile(filePath, asmLines);
+            return;
+        }
+        int[] instructions = HackAssembler.assemble(asmLines);
+        byte[] content = outputFormat == OutputFormat.HACK
+                ? HackAssembler.toBinaryText(instructions)
+                : HackAssembler.toROMImage(instructions);
+        try {
+            Files.write(filePath, content);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Saves the provided list of lines to a file of given path
      *
      * @param filePath
      * @param lines
      */
-    private static void saveFile(Path filePath, List<String> lines) {
+    public static void saveFile(Path filePath, List<String> lines) {
         try {
             String content = String.join("\n", lines);
             Files.writeString(filePath, content);
@@ -0,0 +1,183 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents a whole-program dead function elimination.
+ * The call graph is built from "function" and "call" commands and walked from Sys.init, or in a single file program
+ * from the first function and the commands before it. Functions never reached are stripped.
+ * A function whose last command is neither return nor goto falls through into the next function of its file,
+ * which is then reached as well.
+ */
+public class VMTreeShaker {
+    private static final String entryFunctionName = "Sys.init";
+
+    private final Map<String, List<Block>> fileBlocks = new LinkedHashMap<>();
+    private final Set<String> reachableFunctions = new HashSet<>();
+    private final List<String> strippedFunctions = new ArrayList<>();
+
+    /**
+     * Creates the dead function elimination of given program and walks its call graph
+     *
+     * @param program map of file name and VM commands
+     */
+    public VMTreeShaker(Map<String, List<VMCommand>> program) {
+        Map<String, Block> functions = new HashMap<>();
+        List<Block> roots = new ArrayList<>();
+        for (String fileName : VMProgram.sortedFileNames(program)) {
+            List<Block> blocks = splitFunctions(program.get(fileName));
+            fileBlocks.put(fileName, blocks);
+            for (Block block : blocks) {
+                if (block.functionName == null) {
+                    roots.add(block);
+                } else {
+                    functions.put(block.functionName, block);
+                }
+            }
+        }
+        if (program.size() > 1) {
+            roots.add(functions.get(entryFunctionName));
+        } else {
+            fileBlocks.values().stream()
+                    .flatMap(List::stream)
+                    .filter(block -> block.functionName != null)
+                    .findFirst()
+                    .ifPresent(roots::add);
+        }
+        if (roots.contains(null)) {
+            // no entry function: nothing can be told unreachable
+            reachableFunctions.addAll(functions.keySet());
+        } else {
+            walk(roots, functions);
+        }
+        for (List<Block> blocks : fileBlocks.values()) {
+            for (Block block : blocks) {
+                if (block.functionName != null && !reachableFunctions.contains(block.functionName)) {
+                    strippedFunctions.add(block.functionName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the program without the unreachable functions. Files are kept even if all their functions are stripped.
+     *
+     * @return map of file name and VM commands of reachable functions
+     */
+    public Map<String, List<VMCommand>> getReachableProgram() {
+        Map<String, List<VMCommand>> result = new HashMap<>();
+        fileBlocks.forEach((fileName, blocks) -> {
+            List<VMCommand> commands = new ArrayList<>();
+            for (Block block : blocks) {
+                if (block.functionName == null || reachableFunctions.contains(block.functionName)) {
+                    commands.addAll(block.commands);
+                }
+            }
+            result.put(fileName, commands);
+        });
+        return result;
+    }
+
+    /**
+     * Returns the names of the stripped functions in file name and then program order
+     *
+     * @return the names of the stripped functions
+     */
+    public List<String> getStrippedFunctions() {
+        return strippedFunctions;
+    }
+
+    /**
+     * Marks as reachable all functions called from given blocks, directly or not
+     *
+     * @param roots
+     * @param functions blocks by function name
+     */
+    private void walk(List<Block> roots, Map<String, Block> functions) {
+        Deque<Block> pending = new ArrayDeque<>(roots);
+        for (Block root : roots) {
+            if (root.functionName != null) {
+                reachableFunctions.add(root.functionName);
+            }
+        }
+        while (!pending.isEmpty()) {
+            Block block = pending.pop();
+            for (String calleeName : block.callees) {
+                Block callee = functions.get(calleeName);
+                if (callee != null && reachableFunctions.add(calleeName)) {
+                    pending.push(callee);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits given commands of a file into the commands before the first function and one block per function
+     *
+     * @param commands
+     * @return blocks of given commands in file order
+     */
+    private static List<Block> splitFunctions(List<VMCommand> commands) {
+        List<Block> result = new ArrayList<>();
+        Block block = new Block(null);
+        for (VMCommand command : commands) {
+            if (command.getOpcode() == VMOpcode.FUNCTION) {
+                Block function = new Block(command.getSymbolName());
+                if (block.fallsThrough()) {
+                    block.callees.add(function.functionName);
+                }
+                addIfNotEmpty(result, block);
+                block = function;
+            } else if (command.getOpcode() == VMOpcode.CALL) {
+                block.callees.add(command.getSymbolName());
+            }
+            block.commands.add(command);
+        }
+        addIfNotEmpty(result, block);
+        return result;
+    }
+
+    /**
+     * Adds given block to given list unless it has no commands
+     *
+     * @param blocks
+     * @param block
+     */
+    private static void addIfNotEmpty(List<Block> blocks, Block block) {
+        if (!block.commands.isEmpty()) {
+            blocks.add(block);
+        }
+    }
+
+    /**
+     * Commands of a function, or of the code before the first function of a file, with the functions it calls
+     */
+    private static class Block {
+        private final String functionName;
+        private final List<VMCommand> commands = new ArrayList<>();
+        private final Set<String> callees = new HashSet<>();
+
+        private Block(String functionName) {
+            this.functionName = functionName;
+        }
+
+        /**
+         * Returns true if the execution may continue past the last command of the block
+         *
+         * @return true if the last command is neither return nor goto
+         */
+        private boolean fallsThrough() {
+            if (commands.isEmpty()) {
+                return false;
+            }
+            VMOpcode opcode = commands.get(commands.size() - 1).getOpcode();
+            return opcode != VMOpcode.RETURN && opcode != VMOpcode.GOTO;
+        }
+    }
+}
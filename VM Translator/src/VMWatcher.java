@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Represents a watcher of VM files which retranslates only the changed file and rewrites the output file.
+ * The parsed commands and assembly code of every file are kept in memory between changes.
+ * The watcher owns the symbol table of the commands. Names no longer used stay interned, so when their number
+ * has doubled since the last full translation, all files are translated again with a new symbol table.
+ */
+public class VMWatcher {
+    private static final int minSymbolLimit = 1024;
+
+    private final Path sourcePath;
+    private final Path outputFilePath;
+    private final TranslatorOptions options;
+    private final Map<String, List<VMCommand>> parsedFiles = new HashMap<>();
+    private final Map<String, List<String>> translatedFiles = new HashMap<>();
+    private VMSymbols symbols = new VMSymbols();
+    private int symbolLimit;
+
+    /**
+     * Creates a watcher of given VM file or directory writing to given output file
+     *
+     * @param sourcePath
+     * @param outputFilePath
+     * @param options
+     */
+    public VMWatcher(Path sourcePath, Path outputFilePath, TranslatorOptions options) {
+        this.sourcePath = sourcePath;
+        this.outputFilePath = outputFilePath;
+        this.options = options;
+    }
+
+    /**
+     * Translates all files, then retranslates every changed file until the thread is interrupted
+     */
+    public void run() {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> watchedDirs = register(watchService);
+            translateAll();
+            writeOutput();
+            System.out.println("Watching " + sourcePath + " for changes");
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = watchedDirs.get(key);
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        translateAll();
+                        changed = true;
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    if (!isWatched(path)) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        changed |= fileDeleted(path);
+                    } else {
+                        changed |= fileChanged(path);
+                    }
+                }
+                key.reset();
+                if (symbols.size() > symbolLimit) {
+                    translateAll();
+                    changed = true;
+                }
+                if (changed) {
+                    writeOutput();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads, parses and translates all watched files with a new symbol table
+     */
+    public void translateAll() {
+        parsedFiles.clear();
+        translatedFiles.clear();
+        symbols = new VMSymbols();
+        VMTranslator.listVMFiles(sourcePath).values().forEach(this::fileChanged);
+        symbolLimit = Math.max(2 * symbols.size(), minSymbolLimit);
+    }
+
+    /**
+     * Returns the symbol table of the parsed files
+     *
+     * @return the symbol table of the parsed files
+     */
+    public VMSymbols getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Reads, parses and translates given file. On wrong VM code the previous translation is kept.
+     *
+     * @param path
+     * @return true if the translation changed
+     */
+    public boolean fileChanged(Path path) {
+        String fileName = VMTranslator.getFileNameWithoutExtension(path);
+        try {
+            List<VMCommand> commands = VMParser.parseCommands(VMFileReader.read(path), symbols);
+            if (commands.equals(parsedFiles.get(fileName))) {
+                return false;
+            }
+            parsedFiles.put(fileName, commands);
+            translatedFiles.put(fileName, VMParser.translate(fileName, commands, options));
+            System.out.println("Translated " + path);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Not translated " + path + ": " + e.getMessage());
+        } catch (IOException e) {
+            // deleted or being written, a following event tells
+        }
+        return false;
+    }
+
+    /**
+     * Drops the translation of given file
+     *
+     * @param path
+     * @return true if the file was translated
+     */
+    public boolean fileDeleted(Path path) {
+        String fileName = VMTranslator.getFileNameWithoutExtension(path);
+        parsedFiles.remove(fileName);
+        return translatedFiles.remove(fileName) != null;
+    }
+
+    /**
+     * Links the translated files and writes the output file
+     */
+    public void writeOutput() {
+        if (translatedFiles.isEmpty()) {
+            return;
+        }
+        List<String> asmLines = VMProgram.link(translatedFiles, options);
+        if (!options.getPeepholeRules().isEmpty()) {
+            asmLines = new PeepholeOptimizer(options.getPeepholeRules()).optimize(asmLines);
+        }
+        VMTranslator.saveProgram(outputFilePath, asmLines, options.getOutputFormat());
+    }
+
+    /**
+     * Registers the source directory and its subdirectories, or the directory of the source file, to given service
+     *
+     * @param watchService
+     * @return map of watch key and corresponding directory
+     * @throws IOException
+     */
+    private Map<WatchKey, Path> register(WatchService watchService) throws IOException {
+        List<Path> dirs;
+        if (Files.isRegularFile(sourcePath)) {
+            dirs = List.of(sourcePath.toAbsolutePath().getParent());
+        } else {
+            try (Stream<Path> paths = Files.walk(sourcePath)) {
+                dirs = paths.filter(Files::isDirectory).collect(Collectors.toList());
+            }
+        }
+        Map<WatchKey, Path> result = new HashMap<>();
+        for (Path dir : dirs) {
+            WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            result.put(key, dir);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if given path is a watched VM file
+     *
+     * @param path
+     * @return true if given path is a watched VM file
+     */
+    private boolean isWatched(Path path) {
+        if (!path.getFileName().toString().endsWith(".vm")) {
+            return false;
+        }
+        if (Files.isRegularFile(sourcePath)) {
+            return path.getFileName().equals(sourcePath.getFileName());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,532 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Represents a generator of synthetic VM programs for scaling and stress tests.
+ * The same seed and settings always give the same program. Each file is generated from its own random sequence,
+ * so files are written one at a time and programs of any size can be generated.
+ * <p>
+ * Functions are split into levels by call depth: a function calls functions of the next level only,
+ * and jumps go forward only, so generated programs always terminate.
+ * The stack depth at a label is the same from the jump and from the preceding command.
+ * Sys.init calls every function of the first level and then halts.
+ * The default settings give a program fitting the Hack ROM, larger ones are meant for translator tests.
+ * <p>
+ * Usage: java VMWorkloadGenerator [--files=N] [--functions=N] [--commands=N] [--depth=N] [--labels=P]
+ * [--segments=SEGMENT:WEIGHT,...] [--seed=N] directory
+ */
+public class VMWorkloadGenerator {
+    private static final int staticsPerFile = 4;
+    private static final int thisBaseAddress = 3000;
+    private static final int thatBaseAddress = 4000;
+    private static final int pointedSegmentSize = 8;
+    private static final List<String> binaryOperations = List.of("add", "sub", "and", "or", "eq", "gt", "lt");
+    private static final List<String> unaryOperations = List.of("neg", "not");
+
+    private long seed = 0;
+    private int filesCount = 4;
+    private int functionsPerFile = 5;
+    private int commandsPerFunction = 40;
+    private int callDepth = 4;
+    private double labelDensity = 0.05;
+    private Map<VMSegment, Integer> segmentWeights = defaultSegmentWeights();
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            printUsage();
+            System.exit(0);
+        }
+        VMWorkloadGenerator generator = new VMWorkloadGenerator();
+        try {
+            for (int i = 0; i < args.length - 1; i++) {
+                String arg = args[i];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--files=")) {
+                    generator.setFilesCount(Integer.parseInt(value));
+                } else if (arg.startsWith("--functions=")) {
+                    generator.setFunctionsPerFile(Integer.parseInt(value));
+                } else if (arg.startsWith("--commands=")) {
+                    generator.setCommandsPerFunction(Integer.parseInt(value));
+                } else if (arg.startsWith("--depth=")) {
+                    generator.setCallDepth(Integer.parseInt(value));
+                } else if (arg.startsWith("--labels=")) {
+                    generator.setLabelDensity(Double.parseDouble(value));
+                } else if (arg.startsWith("--segments=")) {
+                    generator.setSegmentWeights(parseSegmentWeights(value));
+                } else if (arg.startsWith("--seed=")) {
+                    generator.setSeed(Long.parseLong(value));
+                } else {
+                    System.out.println("Unknown option: " + arg);
+                    printUsage();
+                    System.exit(0);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Wrong option: " + e.getMessage());
+            printUsage();
+            System.exit(0);
+        }
+        long size = generator.generate(Path.of(args[args.length - 1]));
+        System.out.println("Generated " + size + " bytes of VM code in " + args[args.length - 1]);
+    }
+
+    /**
+     * Returns the segment weights of given comma separated "segment:weight" pairs
+     *
+     * @param segmentWeights
+     * @return the segment weights
+     */
+    private static Map<VMSegment, Integer> parseSegmentWeights(String segmentWeights) {
+        Map<VMSegment, Integer> result = new EnumMap<>(VMSegment.class);
+        for (String segmentWeight : segmentWeights.split(",")) {
+            String[] pair = segmentWeight.split(":");
+            VMSegment segment = VMSegment.of(pair[0]);
+            if (segment == null) {
+                throw new IllegalArgumentException("Unknown segment " + pair[0]);
+            }
+            result.put(segment, Integer.parseInt(pair[1]));
+        }
+        return result;
+    }
+
+    /**
+     * Prints to the console usage information
+     */
+    private static void printUsage() {
+        System.out.println("Usage: java VMWorkloadGenerator [options] directory" + System.lineSeparator());
+        System.out.println("Options:");
+        System.out.println("  --files=N                      number of files besides Sys.vm, 4 by default");
+        System.out.println("  --functions=N                  functions per file, 5 by default");
+        System.out.println("  --commands=N                   commands per function, 40 by default");
+        System.out.println("  --depth=N                      levels of calls below Sys.init, 4 by default");
+        System.out.println("  --labels=P                     probability of a command to be a branch, 0.05 by default");
+        System.out.println("  --segments=SEGMENT:WEIGHT,...  weights of push/pop segments,");
+        System.out.println("                                 constant:4,local:3,argument:2,this:1,that:1,static:1,temp:1,pointer:1 by default");
+        System.out.println("  --seed=N                       seed of the random sequences, 0 by default");
+    }
+
+    /**
+     * Sets the seed of the random sequences
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of files, not counting Sys.vm
+     *
+     * @param filesCount
+     */
+    public void setFilesCount(int filesCount) {
+        this.filesCount = filesCount;
+    }
+
+    /**
+     * Sets the number of functions per file
+     *
+     * @param functionsPerFile
+     */
+    public void setFunctionsPerFile(int functionsPerFile) {
+        this.functionsPerFile = functionsPerFile;
+    }
+
+    /**
+     * Sets the number of commands per function body, approximately
+     *
+     * @param commandsPerFunction
+     */
+    public void setCommandsPerFunction(int commandsPerFunction) {
+        this.commandsPerFunction = commandsPerFunction;
+    }
+
+    /**
+     * Sets the number of function levels below Sys.init
+     *
+     * @param callDepth
+     */
+    public void setCallDepth(int callDepth) {
+        this.callDepth = callDepth;
+    }
+
+    /**
+     * Sets the probability of a command to be a branch, each branch jumping forward to its own label
+     *
+     * @param labelDensity
+     */
+    public void setLabelDensity(double labelDensity) {
+        this.labelDensity = labelDensity;
+    }
+
+    /**
+     * Sets the relative weights of segments used by push and pop commands
+     *
+     * @param segmentWeights
+     */
+    public void setSegmentWeights(Map<VMSegment, Integer> segmentWeights) {
+        this.segmentWeights = segmentWeights;
+    }
+
+    /**
+     * Generates the program and returns a map of file name and content
+     *
+     * @return a map of file name and content
+     */
+    public Map<String, List<String>> generate() {
+        Map<String, List<String>> result = new HashMap<>();
+        for (int fileIndex = 0; fileIndex < filesCount; fileIndex++) {
+            List<String> vmLines = new ArrayList<>();
+            generateFile(fileIndex, vmLines::add);
+            result.put(fileName(fileIndex), vmLines);
+        }
+        List<String> sysLines = new ArrayList<>();
+        generateSys(sysLines::add);
+        result.put("Sys", sysLines);
+        return result;
+    }
+
+    /**
+     * Generates the program and writes it to given directory, which is created if it doesn't exist
+     *
+     * @param directory
+     * @return the total size of the written files in bytes
+     */
+    public long generate(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            long result = 0;
+            for (int fileIndex = -1; fileIndex < filesCount; fileIndex++) {
+                String fileName = fileIndex < 0 ? "Sys" : fileName(fileIndex);
+                Path path = directory.resolve(fileName + ".vm");
+                try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                    Consumer<String> lineWriter = vmLine -> {
+                        try {
+                            writer.write(vmLine);
+                            writer.newLine();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    };
+                    if (fileIndex < 0) {
+                        generateSys(lineWriter);
+                    } else {
+                        generateFile(fileIndex, lineWriter);
+                    }
+                }
+                result += Files.size(path);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Generates Sys.init, which calls every function of the first level and halts
+     *
+     * @param lineConsumer
+     */
+    private void generateSys(Consumer<String> lineConsumer) {
+        lineConsumer.accept("function Sys.init 0");
+        int[] firstLevel = levelRange(0);
+        for (int function = firstLevel[0]; function < firstLevel[1]; function++) {
+            for (int i = 0; i < nArgs(function); i++) {
+                lineConsumer.accept("push constant " + i);
+            }
+            lineConsumer.accept("call " + functionName(function) + " " + nArgs(function));
+            lineConsumer.accept("pop temp 0");
+        }
+        lineConsumer.accept("label HALT");
+        lineConsumer.accept("goto HALT");
+    }
+
+    /**
+     * Generates the functions of given file
+     *
+     * @param fileIndex
+     * @param lineConsumer
+     */
+    private void generateFile(int fileIndex, Consumer<String> lineConsumer) {
+        Random random = new Random(seed * 31 + fileIndex);
+        for (int i = 0; i < functionsPerFile; i++) {
+            generateFunction(fileIndex * functionsPerFile + i, random, lineConsumer);
+        }
+    }
+
+    /**
+     * Generates given function: a body of stack balanced commands ending with return
+     *
+     * @param function
+     * @param random
+     * @param lineConsumer
+     */
+    private void generateFunction(int function, Random random, Consumer<String> lineConsumer) {
+        int nVars = random.nextInt(5);
+        int nArgs = nArgs(function);
+        int level = level(function);
+        int[] callees = level < callDepth ? levelRange(level + 1) : null;
+        if (callees != null && callees[0] >= callees[1]) {
+            callees = null;
+        }
+        lineConsumer.accept("function " + functionName(function) + " " + nVars);
+        lineConsumer.accept("push constant " + thisBaseAddress);
+        lineConsumer.accept("pop pointer 0");
+        lineConsumer.accept("push constant " + thatBaseAddress);
+        lineConsumer.accept("pop pointer 1");
+        // pending label and stack depth of the jump to it
+        Map<String, Integer> pendingLabels = new LinkedHashMap<>();
+        int labelCounter = 0;
+        int depth = 0;
+        for (int i = 0; i < commandsPerFunction; i++) {
+            if (!pendingLabels.isEmpty() && random.nextInt(4) == 0) {
+                List<String> labels = new ArrayList<>(pendingLabels.keySet());
+                String label = labels.get(random.nextInt(labels.size()));
+                depth = placeLabel(label, pendingLabels.remove(label), depth, random, nVars, nArgs, lineConsumer);
+                continue;
+            }
+            if (random.nextDouble() < labelDensity) {
+                String label = "L" + labelCounter;
+                labelCounter++;
+                if (depth > 0 && random.nextBoolean()) {
+                    lineConsumer.accept("if-goto " + label);
+                    depth--;
+                } else {
+                    lineConsumer.accept("goto " + label);
+                }
+                pendingLabels.put(label, depth);
+                continue;
+            }
+            int choice = random.nextInt(10);
+            if (depth == 0 || choice < 4) {
+                lineConsumer.accept(push(random, nVars, nArgs));
+                depth++;
+            } else if (choice < 6) {
+                lineConsumer.accept(pop(random, nVars, nArgs));
+                depth--;
+            } else if (choice < 8 && depth >= 2) {
+                lineConsumer.accept(binaryOperations.get(random.nextInt(binaryOperations.size())));
+                depth--;
+            } else if (choice < 9 || callees == null) {
+                lineConsumer.accept(unaryOperations.get(random.nextInt(unaryOperations.size())));
+            } else {
+                int callee = callees[0] + random.nextInt(callees[1] - callees[0]);
+                for (int arg = 0; arg < nArgs(callee); arg++) {
+                    lineConsumer.accept(push(random, nVars, nArgs));
+                }
+                lineConsumer.accept("call " + functionName(callee) + " " + nArgs(callee));
+                depth++;
+            }
+        }
+        for (Map.Entry<String, Integer> pendingLabel : pendingLabels.entrySet()) {
+            depth = placeLabel(pendingLabel.getKey(), pendingLabel.getValue(), depth, random, nVars, nArgs, lineConsumer);
+        }
+        lineConsumer.accept("push constant " + random.nextInt(32768));
+        lineConsumer.accept("return");
+    }
+
+    /**
+     * Places given label after bringing the stack to the depth of the jump to it,
+     * so that the stack is the same whichever way the label is reached
+     *
+     * @param label
+     * @param jumpDepth
+     * @param depth
+     * @param random
+     * @param nVars
+     * @param nArgs
+     * @param lineConsumer
+     * @return the stack depth at the label
+     */
+    private int placeLabel(String label, int jumpDepth, int depth, Random random, int nVars, int nArgs,
+                           Consumer<String> lineConsumer) {
+        for (; depth > jumpDepth; depth--) {
+            lineConsumer.accept(pop(random, nVars, nArgs));
+        }
+        for (; depth < jumpDepth; depth++) {
+            lineConsumer.accept(push(random, nVars, nArgs));
+        }
+        lineConsumer.accept("label " + label);
+        return depth;
+    }
+
+    /**
+     * Returns a push command of a segment drawn by weight
+     *
+     * @param random
+     * @param nVars
+     * @param nArgs
+     * @return a push command
+     */
+    private String push(Random random, int nVars, int nArgs) {
+        VMSegment segment = randomSegment(random, nVars, nArgs, true);
+        if (segment == VMSegment.CONSTANT) {
+            return "push constant " + random.nextInt(32768);
+        }
+        return "push " + segment.getKeyword() + " " + randomIndex(random, segment, nVars, nArgs);
+    }
+
+    /**
+     * Returns a pop command to a segment drawn by weight.
+     * Pointer segment isn't popped, so that THIS and THAT keep pointing to valid memory.
+     *
+     * @param random
+     * @param nVars
+     * @param nArgs
+     * @return a pop command
+     */
+    private String pop(Random random, int nVars, int nArgs) {
+        VMSegment segment = randomSegment(random, nVars, nArgs, false);
+        return "pop " + segment.getKeyword() + " " + randomIndex(random, segment, nVars, nArgs);
+    }
+
+    /**
+     * Returns a segment drawn by weight, among the ones usable by the current function
+     *
+     * @param random
+     * @param nVars
+     * @param nArgs
+     * @param push
+     * @return a segment drawn by weight
+     */
+    private VMSegment randomSegment(Random random, int nVars, int nArgs, boolean push) {
+        Map<VMSegment, Integer> weights = new EnumMap<>(segmentWeights);
+        if (nVars == 0) {
+            weights.remove(VMSegment.LOCAL);
+        }
+        if (nArgs == 0) {
+            weights.remove(VMSegment.ARGUMENT);
+        }
+        if (!push) {
+            weights.remove(VMSegment.CONSTANT);
+            weights.remove(VMSegment.POINTER);
+        }
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        if (total == 0) {
+            return VMSegment.TEMP;
+        }
+        int draw = random.nextInt(total);
+        for (Map.Entry<VMSegment, Integer> weight : weights.entrySet()) {
+            draw -= weight.getValue();
+            if (draw < 0) {
+                return weight.getKey();
+            }
+        }
+        return VMSegment.TEMP;
+    }
+
+    /**
+     * Returns a valid index of given segment
+     *
+     * @param random
+     * @param segment
+     * @param nVars
+     * @param nArgs
+     * @return a valid index of given segment
+     */
+    private static int randomIndex(Random random, VMSegment segment, int nVars, int nArgs) {
+        switch (segment) {
+            case LOCAL:
+                return random.nextInt(nVars);
+            case ARGUMENT:
+                return random.nextInt(nArgs);
+            case STATIC:
+                return random.nextInt(staticsPerFile);
+            case TEMP:
+                return random.nextInt(8);
+            case POINTER:
+                return random.nextInt(2);
+            default:
+                return random.nextInt(pointedSegmentSize);
+        }
+    }
+
+    /**
+     * Returns the number of arguments of given function, derived from its index so that callers know it
+     *
+     * @param function
+     * @return the number of arguments of given function
+     */
+    private static int nArgs(int function) {
+        return function % 4;
+    }
+
+    /**
+     * Returns the call level of given function
+     *
+     * @param function
+     * @return the call level of given function
+     */
+    private int level(int function) {
+        return (int) ((long) function * (callDepth + 1) / functionsCount());
+    }
+
+    /**
+     * Returns the first function and the function after the last one of given call level
+     *
+     * @param level
+     * @return the range of functions of given call level
+     */
+    private int[] levelRange(int level) {
+        int first = (int) (((long) level * functionsCount() + callDepth) / (callDepth + 1));
+        int last = (int) (((long) (level + 1) * functionsCount() + callDepth) / (callDepth + 1));
+        return new int[]{first, last};
+    }
+
+    /**
+     * Returns the total number of functions, not counting Sys.init
+     *
+     * @return the total number of functions
+     */
+    private int functionsCount() {
+        return filesCount * functionsPerFile;
+    }
+
+    /**
+     * Returns the name of the file of given index
+     *
+     * @param fileIndex
+     * @return the name of the file of given index
+     */
+    private static String fileName(int fileIndex) {
+        return "File" + fileIndex;
+    }
+
+    /**
+     * Returns the full name of given function
+     *
+     * @param function
+     * @return the full name of given function
+     */
+    private String functionName(int function) {
+        return fileName(function / functionsPerFile) + ".f" + function % functionsPerFile;
+    }
+
+    /**
+     * Returns the default segment weights: constants first, then local and argument, then the others
+     *
+     * @return the default segment weights
+     */
+    private static Map<VMSegment, Integer> defaultSegmentWeights() {
+        Map<VMSegment, Integer> result = new EnumMap<>(VMSegment.class);
+        result.put(VMSegment.CONSTANT, 4);
+        result.put(VMSegment.LOCAL, 3);
+        result.put(VMSegment.ARGUMENT, 2);
+        result.put(VMSegment.THIS, 1);
+        result.put(VMSegment.THAT, 1);
+        result.put(VMSegment.STATIC, 1);
+        result.put(VMSegment.TEMP, 1);
+        result.put(VMSegment.POINTER, 1);
+        return result;
+    }
+}
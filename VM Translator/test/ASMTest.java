@@ -2,6 +2,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 
@@ -292,8 +293,8 @@ public class ASMTest {
     }
     @Test
     public void testPushFromTempSegment() {
-        String index = "2";
-        String address = String.valueOf(5 + Integer.parseInt(index));
+        int index = 2;
+        String address = String.valueOf(5 + index);
         List<String> expectedList = List.of(
                 "@" + address ,
                 "D=M",
@@ -308,8 +309,8 @@ public class ASMTest {
     }
     @Test
     public void testPopToTempSegment() {
-        String index = "3";
-        String address = String.valueOf(5 + Integer.parseInt(index));
+        int index = 3;
+        String address = String.valueOf(5 + index);
         List<String> expectedList = List.of(
                 "@SP",
                 "M=M-1",
@@ -325,17 +326,13 @@ public class ASMTest {
     @Test
     public void testPushFromPointedSegment() {
         String reference = "ARG";
-        String index = "2";
-        String address = String.valueOf(5 + Integer.parseInt(index));
+        int index = 2;
+        String address = String.valueOf(5 + index);
         List<String> expectedList = List.of(
                 "@" + reference,
                 "D=M",
                 "@" + index,
-                "D=D+A",
-                "@R13",
-                "M=D",
-                "@R13",
-                "A=M",
+                "A=D+A",
                 "D=M",
                 "@SP",
                 "A=M",
@@ -349,24 +346,79 @@ public class ASMTest {
     @Test
     public void testPopToPointedSegment() {
         String reference = "LCL";
-        String index = "3";
+        int index = 3;
         List<String> expectedList = List.of(
                 "@" + reference,
                 "D=M",
                 "@" + index,
                 "D=D+A",
-                "@R13",
-                "M=D",
                 "@SP",
-                "M=M-1",
+                "AM=M-1",
+                "D=D+M",
+                "A=D-M",
+                "M=D-A"
+        );
+        String expected = String.join(System.lineSeparator(), expectedList);
+        assertEquals(expected, ASM.popToPointedSegment(reference, index));
+    }
+
+    @Test
+    public void testStoreDToPreIncremented() {
+        List<String> expectedList = List.of(
                 "@SP",
-                "A=M",
-                "D=M",
+                "AM=M+1",
+                "M=D"
+        );
+        String expected = String.join(System.lineSeparator(), expectedList);
+        assertEquals(expected, ASM.storeDToPreIncremented("SP"));
+    }
+    @Test
+    public void testLoadPreDecrementedToD() {
+        List<String> expectedList = List.of(
                 "@R13",
+                "AM=M-1",
+                "D=M"
+        );
+        String expected = String.join(System.lineSeparator(), expectedList);
+        assertEquals(expected, ASM.loadPreDecrementedToD("R13"));
+    }
+    @Test
+    public void testJumpToDereference() {
+        List<String> expectedList = List.of(
+                "@R14",
                 "A=M",
-                "M=D"
+                "0;JMP"
         );
         String expected = String.join(System.lineSeparator(), expectedList);
-        assertEquals(expected, ASM.popToPointedSegment(reference, index));
+        assertEquals(expected, ASM.jumpToDereference("R14"));
+    }
+    @Test
+    public void testSetDTrueFalseIf() {
+        List<String> expectedList = List.of(
+                "@Foo.bar$cmp.1$TRUE",
+                "D;JEQ",
+                "D=0",
+                "@Foo.bar$cmp.1$END",
+                "0;JMP",
+                "(Foo.bar$cmp.1$TRUE)",
+                "D=-1",
+                "(Foo.bar$cmp.1$END)"
+        );
+        String expected = String.join(System.lineSeparator(), expectedList);
+        assertEquals(expected, ASM.setDTrueFalseIf("EQ", "Foo.bar$cmp.1"));
+    }
+
+    @Test
+    public void testStoreDToPointedSegment() {
+        for (int index : new int[]{0, 3, 6, 7, 20}) {
+            List<String> asm = List.of(
+                    "@1234",
+                    "D=A",
+                    ASM.storeDToPointedSegment("THAT", index)
+            );
+            HackEmulator emulator = TestEmulator.run(asm, Map.of(4, 3000), 100);
+            assertEquals(1234, emulator.getRAM(3000 + index));
+            assertEquals(3000, emulator.getRAM(4));
+        }
     }
 }
@@ -1,13 +1,17 @@
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static junit.framework.TestCase.assertEquals;
 
 public class ASMWriterTest {
     @Test
     public void testPushValue() {
-        String value = "99";
+        int value = 99;
         List<String> expectedAsList = List.of(
                 "@" + value,
                 "D=A",
@@ -22,10 +26,9 @@ public class ASMWriterTest {
 
     @Test
     public void testPushLocal() {
-        String index = "11";
+        int index = 11;
         List<String> expectedAsList = List.of(
-                storeSumToR13("LCL", index),
-                loadToDPointedAddressPointedBy("R13"),
+                loadToDSum("LCL", index),
                 pushFromD()
         );
 
@@ -35,10 +38,9 @@ public class ASMWriterTest {
 
     @Test
     public void testPushArgument() {
-        String index = "3";
+        int index = 3;
         List<String> expectedAsList = List.of(
-                storeSumToR13("ARG", index),
-                loadToDPointedAddressPointedBy("R13"),
+                loadToDSum("ARG", index),
                 pushFromD()
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
@@ -47,10 +49,9 @@ public class ASMWriterTest {
 
     @Test
     public void testPushThis() {
-        String index = "3";
+        int index = 3;
         List<String> expectedAsList = List.of(
-                storeSumToR13("THIS", index),
-                loadToDPointedAddressPointedBy("R13"),
+                loadToDSum("THIS", index),
                 pushFromD()
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
@@ -59,10 +60,9 @@ public class ASMWriterTest {
 
     @Test
     public void testPushThat() {
-        String index = "4";
+        int index = 4;
         List<String> expectedAsList = List.of(
-                storeSumToR13("THAT", index),
-                loadToDPointedAddressPointedBy("R13"),
+                loadToDSum("THAT", index),
                 pushFromD()
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
@@ -71,10 +71,10 @@ public class ASMWriterTest {
 
     @Test
     public void testPushTemp() {
-        String index = "6";
+        int index = 6;
         String segment = "temp";
         String segmentRegister = "5";
-        int address = Integer.parseInt(segmentRegister) + Integer.parseInt(index);
+        int address = Integer.parseInt(segmentRegister) + index;
         List<String> expectedAsList = List.of(
                 "@" + address,
                 "D=M",
@@ -90,21 +90,17 @@ public class ASMWriterTest {
 
     @Test
     public void testPopLocal() {
-        String index = "11";
+        int index = 11;
         List<String> expectedAsList = List.of(
                 "@LCL",
                 "D=M",
                 "@" + index,
                 "D=D+A",
-                "@R13",
-                "M=D",
-                decSP(),
                 "@SP",
-                "A=M",
-                "D=M",
-                "@R13",
-                "A=M",
-                "M=D"
+                "AM=M-1",
+                "D=D+M",
+                "A=D-M",
+                "M=D-A"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.popLocal(index));
@@ -112,21 +108,17 @@ public class ASMWriterTest {
 
     @Test
     public void testPopArgument() {
-        String index = "22";
+        int index = 22;
         List<String> expectedAsList = List.of(
                 "@ARG",
                 "D=M",
                 "@" + index,
                 "D=D+A",
-                "@R13",
-                "M=D",
-                decSP(),
                 "@SP",
-                "A=M",
-                "D=M",
-                "@R13",
-                "A=M",
-                "M=D"
+                "AM=M-1",
+                "D=D+M",
+                "A=D-M",
+                "M=D-A"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.popArgument(index));
@@ -134,21 +126,17 @@ public class ASMWriterTest {
 
     @Test
     public void testPopThis() {
-        String index = "33";
+        int index = 33;
         List<String> expectedAsList = List.of(
                 "@THIS",
                 "D=M",
                 "@" + index,
                 "D=D+A",
-                "@R13",
-                "M=D",
-                decSP(),
                 "@SP",
-                "A=M",
-                "D=M",
-                "@R13",
-                "A=M",
-                "M=D"
+                "AM=M-1",
+                "D=D+M",
+                "A=D-M",
+                "M=D-A"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.popThis(index));
@@ -156,32 +144,63 @@ public class ASMWriterTest {
 
     @Test
     public void testPopThat() {
-        String index = "44";
+        int index = 44;
         List<String> expectedAsList = List.of(
                 "@THAT",
                 "D=M",
                 "@" + index,
                 "D=D+A",
-                "@R13",
-                "M=D",
-                decSP(),
                 "@SP",
+                "AM=M-1",
+                "D=D+M",
+                "A=D-M",
+                "M=D-A"
+        );
+        String expected = String.join(System.lineSeparator(), expectedAsList);
+        assertEquals(expected, ASMWriter.popThat(index));
+    }
+
+    @Test
+    public void testPushLocalSmallIndex() {
+        List<String> expectedAsList = List.of(
+                "@LCL",
                 "A=M",
                 "D=M",
-                "@R13",
-                "A=M",
+                pushFromD()
+        );
+        String expected = String.join(System.lineSeparator(), expectedAsList);
+        assertEquals(expected, ASMWriter.pushLocal(0));
+        expectedAsList = List.of(
+                "@LCL",
+                "A=M+1",
+                "D=M",
+                pushFromD()
+        );
+        expected = String.join(System.lineSeparator(), expectedAsList);
+        assertEquals(expected, ASMWriter.pushLocal(1));
+    }
+
+    @Test
+    public void testPopArgumentSmallIndex() {
+        List<String> expectedAsList = List.of(
+                "@SP",
+                "AM=M-1",
+                "D=M",
+                "@ARG",
+                "A=M+1",
+                "A=A+1",
                 "M=D"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
-        assertEquals(expected, ASMWriter.popThat(index));
+        assertEquals(expected, ASMWriter.popArgument(2));
     }
 
     @Test
     public void testPopTemp() {
-        String index = "6";
+        int index = 6;
         String segment = "temp";
         String segmentRegister = "5";
-        int address = Integer.parseInt(segmentRegister) + Integer.parseInt(index);
+        int address = Integer.parseInt(segmentRegister) + index;
         List<String> expectedAsList = List.of(
                 popToD(),
                 "@" + address,
@@ -194,10 +213,9 @@ public class ASMWriterTest {
     @Test
     public void testAdd() {
         List<String> expectedAsList = List.of(
-                popToD(),
-                popToA(),
-                "D=D+A",
-                pushFromD()
+                popToDCompact(),
+                "A=A-1",
+                "M=D+M"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.add());
@@ -206,11 +224,9 @@ public class ASMWriterTest {
     @Test
     public void testSub() {
         List<String> expectedAsList = List.of(
-                popToD(),
-                popToA(),
-                "D=D-A",
-                "D=-D",
-                pushFromD()
+                popToDCompact(),
+                "A=A-1",
+                "M=M-D"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.sub());
@@ -219,9 +235,9 @@ public class ASMWriterTest {
     @Test
     public void testNeg() {
         List<String> expectedAsList = List.of(
-                popToD(),
-                "D=-D",
-                pushFromD()
+                "@SP",
+                "A=M-1",
+                "M=-M"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.neg());
@@ -230,9 +246,9 @@ public class ASMWriterTest {
     @Test
     public void testNot() {
         List<String> expectedAsList = List.of(
-                popToD(),
-                "D=!D",
-                pushFromD()
+                "@SP",
+                "A=M-1",
+                "M=!M"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.not());
@@ -241,10 +257,9 @@ public class ASMWriterTest {
     @Test
     public void testAnd() {
         List<String> expectedAsList = List.of(
-                popToD(),
-                popToA(),
-                "D=D&A",
-                pushFromD()
+                popToDCompact(),
+                "A=A-1",
+                "M=D&M"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.and());
@@ -253,15 +268,26 @@ public class ASMWriterTest {
     @Test
     public void testOr() {
         List<String> expectedAsList = List.of(
-                popToD(),
-                popToA(),
-                "D=D|A",
-                pushFromD()
+                popToDCompact(),
+                "A=A-1",
+                "M=D|M"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
         assertEquals(expected, ASMWriter.or());
     }
 
+    @Test
+    public void testComparisons() {
+        int[][] operands = {{7, 7}, {7, 8}, {8, 7}, {-3, 2}, {2, -3}, {0, -1}};
+        for (int[] xy : operands) {
+            int x = xy[0];
+            int y = xy[1];
+            assertEquals(x == y ? -1 : 0, runComparison(ASMWriter.eq("EQ"), x, y));
+            assertEquals(x > y ? -1 : 0, runComparison(ASMWriter.gt("GT"), x, y));
+            assertEquals(x < y ? -1 : 0, runComparison(ASMWriter.lt("LT"), x, y));
+        }
+    }
+
     @Test
     public void testPushPointer0() {
         List<String> expectedAsList = List.of(
@@ -270,7 +296,7 @@ public class ASMWriterTest {
                 pushFromD()
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
-        assertEquals(expected, ASMWriter.pushPointer("0"));
+        assertEquals(expected, ASMWriter.pushPointer(0));
     }
 
     @Test
@@ -281,7 +307,7 @@ public class ASMWriterTest {
                 pushFromD()
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
-        assertEquals(expected, ASMWriter.pushPointer("1"));
+        assertEquals(expected, ASMWriter.pushPointer(1));
     }
 
     @Test
@@ -292,7 +318,7 @@ public class ASMWriterTest {
                 "M=D"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
-        assertEquals(expected, ASMWriter.popPointer("0"));
+        assertEquals(expected, ASMWriter.popPointer(0));
     }
 
     @Test
@@ -303,7 +329,7 @@ public class ASMWriterTest {
                 "M=D"
         );
         String expected = String.join(System.lineSeparator(), expectedAsList);
-        assertEquals(expected, ASMWriter.popPointer("1"));
+        assertEquals(expected, ASMWriter.popPointer(1));
     }
 
     @Test
@@ -374,7 +400,7 @@ public class ASMWriterTest {
 
     @Test
     public void testBootstrap() {
-        String returnLabelName = "Sys.init$ret.1";
+        String returnLabelName = "$BOOTSTRAP$ret";
         List<String> expectedAsList = List.of(
                 "@256",
                 "D=A",
@@ -435,6 +461,16 @@ public class ASMWriterTest {
         assertEquals(expected, ASMWriter.bootstrap());
     }
 
+    @Test
+    public void testRetViaRoutine() {
+        List<String> expectedAsList = List.of(
+                "@$RETURN$",
+                "0;JMP"
+        );
+        String expected = String.join(System.lineSeparator(), expectedAsList);
+        assertEquals(expected, ASMWriter.retViaRoutine());
+    }
+
     @Test
     public void testEndInfiniteLoop() {
         List<String> expectedAsList = List.of(
@@ -456,12 +492,11 @@ public class ASMWriterTest {
         return String.join(System.lineSeparator(), result);
     }
 
-    private String popToA() {
+    private String popToDCompact() {
         List<String> result = List.of(
-                decSP(),
                 "@SP",
-                "A=M",
-                "A=M"
+                "AM=M-1",
+                "D=M"
         );
         return String.join(System.lineSeparator(), result);
     }
@@ -476,13 +511,51 @@ public class ASMWriterTest {
         return String.join(System.lineSeparator(), result);
     }
 
-    private String loadToDPointedAddressPointedBy(String register) {
-        List<String> result = List.of(
-                "@" + register,
-                "A=M",
-                "D=M"
-        );
-        return String.join(System.lineSeparator(), result);
+    @Test
+    public void testFunctionPrologues() {
+        long haltCycles = runPrologue(ASMWriter.function("F", 0, LocalInitialization.PUSHES, null)).getCycles();
+        for (LocalInitialization initialization : LocalInitialization.values()) {
+            for (int nVars = 1; nVars <= LocalInitialization.maxRoutineVars + 2; nVars++) {
+                if (initialization == LocalInitialization.ROUTINE && nVars > LocalInitialization.maxRoutineVars) {
+                    continue;
+                }
+                String prologue = ASMWriter.function("F", nVars, initialization, "F$init");
+                HackEmulator emulator = runPrologue(prologue);
+                String message = initialization + " " + nVars;
+                for (int i = 0; i < nVars; i++) {
+                    assertEquals(message, 0, emulator.getRAM(256 + i));
+                }
+                assertEquals(message, 5, emulator.getRAM(256 + nVars));
+                assertEquals(message, 256 + nVars, emulator.getRAM(0));
+                assertEquals(message, initialization.cycleCost(nVars), emulator.getCycles() - haltCycles);
+                long instructions = prologue.lines()
+                        .filter(line -> !line.startsWith("("))
+                        .count();
+                assertEquals(message, initialization.romCost(nVars), instructions);
+            }
+        }
+    }
+
+    private HackEmulator runPrologue(String prologue) {
+        List<String> asm = List.of(prologue, "(HALT)", "@HALT", "0;JMP", helperLibrary(prologue));
+        Map<Integer, Integer> ram = new HashMap<>();
+        for (int address = 256; address < 270; address++) {
+            ram.put(address, 5);
+        }
+        ram.put(0, 256);
+        return TestEmulator.run(asm, ram, 1000);
+    }
+
+    private String helperLibrary(String asm) {
+        Set<String> referencedLabels = new HashSet<>();
+        ASMWriter.collectHelperReferences(asm, referencedLabels);
+        return ASMWriter.helperLibrary(referencedLabels);
+    }
+
+    private int runComparison(String comparison, int x, int y) {
+        HackEmulator emulator = TestEmulator.run(List.of(comparison), Map.of(0, 258, 256, x, 257, y), 100);
+        assertEquals(257, emulator.getRAM(0));
+        return emulator.getRAM(256);
     }
 
     private String incSP() {
@@ -495,15 +568,14 @@ public class ASMWriterTest {
                 "M=M-1";
     }
 
-    private String storeSumToR13(String register, String index) {
+    private String loadToDSum(String register, int index) {
         List<String> result = List.of(
                 "@" + register,
                 "D=M",
                 "@" + index,
-                "D=D+A",
-                "@R13",
-                "M=D"
+                "A=D+A",
+                "D=M"
         );
         return String.join(System.lineSeparator(), result);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CostReportTest {
+
+    @Test
+    public void testCostsAttributedToFileFunctionAndCommand() {
+        Map<String, List<String>> vmFiles = Map.of(
+                "Main", List.of("function Main.main 0", "push constant 1", "push local 2", "add", "return"),
+                "Sys", List.of("function Sys.init 0", "call Main.main 0", "label LOOP", "goto LOOP"));
+        CostReport report = new CostReport();
+        List<String> asmLines = VMProgram.toASM(vmFiles);
+        asmLines.forEach(report);
+
+        long instructions = String.join(System.lineSeparator(), asmLines).lines()
+                .filter(line -> !line.isEmpty() && !line.startsWith("//") && !line.startsWith("("))
+                .count();
+        assertEquals(instructions, report.getTotal());
+        assertEquals(report.getTotal(), report.getFileCost("Main") + report.getFileCost("Sys")
+                + report.getFileCost("(shared)"));
+        assertEquals(report.getFileCost("Main"), report.getFunctionCost("Main.main"));
+        assertEquals(ASMWriter.pushValue(1).lines().count(), report.getCommandCost("push constant"));
+        assertEquals(2, report.getCommandCost("goto"));
+    }
+
+    @Test
+    public void testLocalInitializationCosts() {
+        Map<String, List<String>> vmFiles = Map.of(
+                "Main", List.of("function Main.main 3", "push constant 1", "return",
+                        "function Main.large 10", "push constant 1", "return"));
+        for (boolean sharedHelpers : new boolean[]{false, true}) {
+            TranslatorOptions options = new TranslatorOptions();
+            options.setSharedHelpers(sharedHelpers);
+            CostReport report = new CostReport(options);
+            VMProgram.toASM(vmFiles, options).forEach(report);
+
+            LocalInitialization small = sharedHelpers ? LocalInitialization.ROUTINE : LocalInitialization.STORES;
+            assertEquals(small.romCost(3), report.getInitializationCost(small));
+            assertEquals(small.cycleCost(3), report.getInitializationCycles(small));
+            assertEquals(LocalInitialization.LOOP.romCost(10), report.getInitializationCost(LocalInitialization.LOOP));
+            assertEquals(LocalInitialization.LOOP.cycleCost(10), report.getInitializationCycles(LocalInitialization.LOOP));
+        }
+    }
+}
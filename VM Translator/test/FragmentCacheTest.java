@@ -0,0 +1,98 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FragmentCacheTest {
+
+    @Test
+    public void testHitAfterMiss() throws IOException {
+        Path directory = Files.createTempDirectory("fragments");
+        FragmentCache cache = new FragmentCache(directory, 1024 * 1024);
+        List<VMCommand> commands = VMParser.parseCommands(List.of("push constant 7", "push constant 8", "add"));
+        TranslatorOptions options = TranslatorOptions.defaults();
+        List<String> translated = cache.get("Foo", commands, options, () -> VMParser.translate("Foo", commands, options));
+        List<String> cached = cache.get("Foo", commands, options, () -> VMParser.translate("Foo", commands, options));
+        assertEquals(String.join("\n", translated), String.join("\n", cached));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testChangedContentMisses() throws IOException {
+        Path directory = Files.createTempDirectory("fragments");
+        FragmentCache cache = new FragmentCache(directory, 1024 * 1024);
+        TranslatorOptions options = TranslatorOptions.defaults();
+        cache.get("Foo", commands(7), options, () -> List.of("A"));
+        cache.get("Foo", commands(8), options, () -> List.of("B"));
+        options.setSharedHelpers(true);
+        cache.get("Foo", commands(8), options, () -> List.of("C"));
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testEvictedOverSizeLimit() throws IOException {
+        Path directory = Files.createTempDirectory("fragments");
+        FragmentCache cache = new FragmentCache(directory, 10);
+        TranslatorOptions options = TranslatorOptions.defaults();
+        cache.get("Foo", commands(7), options, () -> List.of("12345678"));
+        cache.get("Bar", commands(7), options, () -> List.of("12345678"));
+        assertEquals(1, cache.getEvictions());
+        cache.get("Bar", commands(7), options, () -> List.of("12345678"));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testSizeOfReopenedCacheCounted() throws IOException {
+        Path directory = Files.createTempDirectory("fragments");
+        TranslatorOptions options = TranslatorOptions.defaults();
+        new FragmentCache(directory, 10).get("Foo", commands(7), options, () -> List.of("12345678"));
+        FragmentCache cache = new FragmentCache(directory, 10);
+        cache.get("Bar", commands(7), options, () -> List.of("12345678"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testCommentChangeHits() throws IOException {
+        Path directory = Files.createTempDirectory("fragments");
+        FragmentCache cache = new FragmentCache(directory, 1024 * 1024);
+        TranslatorOptions options = TranslatorOptions.defaults();
+        cache.get("Foo", VMParser.parseCommands(List.of("label LOOP", "goto LOOP")), options, () -> List.of("A"));
+        cache.get("Foo", VMParser.parseCommands(List.of("// loop", "label  LOOP", "goto LOOP // again")), options,
+                () -> List.of("B"));
+        cache.get("Foo", VMParser.parseCommands(List.of("label LOOP2", "goto LOOP2")), options, () -> List.of("C"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testContentLookedUpBeforeLexing() throws IOException {
+        Path directory = Files.createTempDirectory("fragments");
+        FragmentCache cache = new FragmentCache(directory, 1024 * 1024);
+        TranslatorOptions options = TranslatorOptions.defaults();
+        ByteBuffer vmCode = ByteBuffer.wrap("push constant 7\n".getBytes(StandardCharsets.UTF_8));
+        List<String> translated = cache.get("Foo", vmCode, options,
+                () -> VMParser.translate("Foo", VMParser.parseCommands(vmCode), options));
+        List<String> cached = cache.get("Foo", vmCode, options, () -> {
+            throw new AssertionError("translated again");
+        });
+        assertEquals(String.join("\n", translated), String.join("\n", cached));
+        assertEquals(0, vmCode.position());
+        cache.get("Foo", ByteBuffer.wrap("push constant 7 // seven\n".getBytes(StandardCharsets.UTF_8)), options,
+                () -> List.of("B"));
+        cache.get("Foo", VMParser.parseCommands(vmCode), options, () -> List.of("C"));
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    private static List<VMCommand> commands(int constant) {
+        return VMParser.parseCommands(List.of("push constant " + constant));
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HackAssemblerTest {
+
+    @Test
+    public void testAssemble() {
+        List<String> asm = List.of(
+                "// adds R0 to a variable",
+                "@R0",
+                "D=M",
+                "(LOOP)",
+                "@sum",
+                "M=D+M // inline comment",
+                "@LOOP",
+                "D;JGT",
+                "AM=M-1"
+        );
+        String[] expected = {
+                "0000000000000000",
+                "1111110000010000",
+                "0000000000010000",
+                "1111000010001000",
+                "0000000000000010",
+                "1110001100000001",
+                "1111110010101000"
+        };
+        assertArrayEquals(expected, HackAssembler.toBinaryLines(HackAssembler.assemble(asm)));
+    }
+
+    @Test
+    public void testBinaryTextAndROMImage() {
+        int[] instructions = HackAssembler.assemble(List.of("@12345", "D=M", "(END)", "@END", "0;JMP"));
+        String expectedText = String.join("\n", HackAssembler.toBinaryLines(instructions));
+        assertEquals(expectedText, new String(HackAssembler.toBinaryText(instructions), StandardCharsets.US_ASCII));
+        byte[] image = HackAssembler.toROMImage(instructions);
+        assertEquals(2 * instructions.length, image.length);
+        assertArrayEquals(instructions, HackAssembler.fromROMImage(image));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongInstruction() {
+        HackAssembler.assemble(List.of("D=D*A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateLabel() {
+        HackAssembler.assemble(List.of("(LOOP)", "@LOOP", "(LOOP)", "0;JMP"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstantOutOfRange() {
+        HackAssembler.assemble(List.of("@32768"));
+    }
+
+    @Test
+    public void testManySymbols() {
+        List<String> asm = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            asm.add("(L" + i + ")");
+            asm.add("@v" + i);
+            asm.add("@L" + i);
+        }
+        int[] instructions = HackAssembler.assemble(asm);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(16 + i, instructions[2 * i]);
+            assertEquals(2 * i, instructions[2 * i + 1]);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class HackEmulatorTest {
+
+    @Test
+    public void testFibonacciElement() {
+        Map<String, List<String>> vmFiles = Map.of(
+                "Main", List.of(
+                        "function Main.fibonacci 0",
+                        "push argument 0",
+                        "push constant 2",
+                        "lt",
+                        "if-goto N_LT_2",
+                        "goto N_GE_2",
+                        "label N_LT_2",
+                        "push argument 0",
+                        "return",
+                        "label N_GE_2",
+                        "push argument 0",
+                        "push constant 2",
+                        "sub",
+                        "call Main.fibonacci 1",
+                        "push argument 0",
+                        "push constant 1",
+                        "sub",
+                        "call Main.fibonacci 1",
+                        "add",
+                        "return"
+                ),
+                "Sys", List.of(
+                        "function Sys.init 0",
+                        "push constant 4",
+                        "call Main.fibonacci 1",
+                        "label END",
+                        "goto END"
+                )
+        );
+        HackEmulator emulator = TestEmulator.runToHalt(VMProgram.toASM(vmFiles), Map.of(), 6000);
+        assertEquals(262, emulator.getRAM(0));
+        assertEquals(3, emulator.getRAM(261));
+    }
+
+    @Test
+    public void testArithmeticWraps() {
+        List<String> asm = List.of(
+                "@32767",
+                "D=A",
+                "D=D+1",
+                "@R0",
+                "M=D",
+                "@R1",
+                "M=-1",
+                "D=M",
+                "@R2",
+                "M=D-1"
+        );
+        HackEmulator emulator = TestEmulator.runToHalt(asm, Map.of(), 100);
+        assertEquals(-32768, emulator.getRAM(0));
+        assertEquals(-1, emulator.getRAM(1));
+        assertEquals(-2, emulator.getRAM(2));
+        assertEquals(10, emulator.getCycles());
+    }
+
+    @Test
+    public void testStopsAfterMaxCycles() {
+        List<String> asm = List.of("(LOOP)", "@R0", "M=M+1", "@LOOP", "0;JMP");
+        HackEmulator emulator = TestEmulator.load(asm, Map.of());
+        assertFalse(emulator.run(400));
+        assertEquals(400, emulator.getCycles());
+        assertEquals(100, emulator.getRAM(0));
+    }
+}
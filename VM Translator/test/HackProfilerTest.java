@@ -0,0 +1,107 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HackProfilerTest {
+    private static final Map<String, List<String>> vmFiles = Map.of(
+            "Main", List.of(
+                    "function Main.fibonacci 0",
+                    "push argument 0",
+                    "push constant 2",
+                    "lt",
+                    "if-goto N_LT_2",
+                    "goto N_GE_2",
+                    "label N_LT_2",
+                    "push argument 0",
+                    "return",
+                    "label N_GE_2",
+                    "push argument 0",
+                    "push constant 2",
+                    "sub",
+                    "call Main.fibonacci 1",
+                    "push argument 0",
+                    "push constant 1",
+                    "sub",
+                    "call Main.fibonacci 1",
+                    "add",
+                    "return"
+            ),
+            "Sys", List.of(
+                    "function Sys.init 0",
+                    "push constant 4",
+                    "call Main.fibonacci 1",
+                    "label END",
+                    "goto END"
+            )
+    );
+
+    @Test
+    public void testFunctionProfiles() {
+        assertProfiles(new TranslatorOptions());
+        TranslatorOptions sharedCallReturn = new TranslatorOptions();
+        sharedCallReturn.setSharedCallReturn(true);
+        assertProfiles(sharedCallReturn);
+    }
+
+    @Test
+    public void testFoldedStacksSumToCycles() {
+        HackProfiler profiler = new HackProfiler(VMProgram.toASM(vmFiles));
+        assertTrue(profiler.run(6000));
+        List<String> stacks = profiler.foldedStacks();
+        assertEquals("(program) " + profiler.getExclusiveCycles("(program)"), stacks.get(0));
+        assertTrue(stacks.contains("(program);Sys.init " + profiler.getExclusiveCycles("Sys.init")));
+        long cycles = stacks.stream().mapToLong(stack -> Long.parseLong(stack.substring(stack.lastIndexOf(' ') + 1))).sum();
+        assertEquals(profiler.getEmulator().getCycles(), cycles);
+    }
+
+    @Test
+    public void testLoopAtFunctionStartNotCall() {
+        Map<String, List<String>> loopFiles = Map.of(
+                "Sys", List.of(
+                        "function Sys.init 0",
+                        "push constant 5",
+                        "call Sys.loop 1",
+                        "label END",
+                        "goto END",
+                        "function Sys.loop 0",
+                        "label LOOP",
+                        "push argument 0",
+                        "push constant 1",
+                        "sub",
+                        "pop argument 0",
+                        "push argument 0",
+                        "if-goto LOOP",
+                        "push constant 0",
+                        "return"
+                ),
+                "Main", List.of()
+        );
+        TranslatorOptions tailCalls = new TranslatorOptions();
+        tailCalls.setTailCalls(true);
+        for (TranslatorOptions options : List.of(new TranslatorOptions(), tailCalls)) {
+            HackProfiler profiler = new HackProfiler(VMProgram.toASM(loopFiles, options));
+            assertTrue(profiler.run(6000));
+            assertEquals(1, profiler.getCalls("Sys.loop"));
+            assertEquals(profiler.getEmulator().getCycles(), profiler.getExclusiveCycles("(program)")
+                    + profiler.getInclusiveCycles("Sys.init"));
+        }
+    }
+
+    private static void assertProfiles(TranslatorOptions options) {
+        HackProfiler profiler = new HackProfiler(VMProgram.toASM(vmFiles, options));
+        assertTrue(profiler.run(6000));
+        long cycles = profiler.getEmulator().getCycles();
+        assertEquals(1, profiler.getCalls("Sys.init"));
+        assertEquals(9, profiler.getCalls("Main.fibonacci"));
+        assertEquals(cycles, profiler.getInclusiveCycles("(program)"));
+        assertEquals(cycles, profiler.getExclusiveCycles("(program)") + profiler.getExclusiveCycles("Sys.init")
+                + profiler.getExclusiveCycles("Main.fibonacci"));
+        assertEquals(profiler.getInclusiveCycles("Sys.init"),
+                profiler.getExclusiveCycles("Sys.init") + profiler.getInclusiveCycles("Main.fibonacci"));
+        assertEquals(profiler.getExclusiveCycles("Main.fibonacci"), profiler.getInclusiveCycles("Main.fibonacci"));
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PeepholeOptimizerTest {
+
+    @Test
+    public void testPushPopRemoved() {
+        List<String> asm = List.of(
+                ASM.pushD(),
+                "// pop static 0",
+                ASM.popD() + System.lineSeparator() + "@Foo.0",
+                "M=D"
+        );
+        List<String> expected = List.of(
+                "// pop static 0",
+                "@Foo.0",
+                "M=D"
+        );
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(EnumSet.allOf(PeepholeRule.class));
+        assertEquals(expected, optimizer.optimize(asm));
+        assertEquals(Integer.valueOf(1), optimizer.getHitCounts().get(PeepholeRule.PUSH_POP));
+    }
+
+    @Test
+    public void testPopDCollapsed() {
+        List<String> asm = List.of(
+                ASM.popD(),
+                "@R13",
+                "M=D"
+        );
+        List<String> expected = List.of(
+                "@SP",
+                "AM=M-1",
+                "D=M",
+                "@R13",
+                "M=D"
+        );
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(EnumSet.allOf(PeepholeRule.class));
+        assertEquals(expected, optimizer.optimize(asm));
+        assertEquals(Integer.valueOf(1), optimizer.getHitCounts().get(PeepholeRule.REDUNDANT_A_LOAD));
+        assertEquals(Integer.valueOf(1), optimizer.getHitCounts().get(PeepholeRule.PRE_INC_DEC));
+    }
+
+    @Test
+    public void testLabelClosesWindow() {
+        List<String> asm = List.of(
+                "@SP",
+                "M=M+1",
+                "(LOOP)",
+                "@SP",
+                "M=M-1"
+        );
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(EnumSet.allOf(PeepholeRule.class));
+        assertEquals(asm, optimizer.optimize(asm));
+    }
+
+    @Test
+    public void testOnlyGivenRulesApplied() {
+        List<String> asm = List.of(
+                "@R13",
+                "@R14",
+                "M=D",
+                "D=M"
+        );
+        List<String> expected = List.of(
+                "@R14",
+                "M=D",
+                "D=M"
+        );
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(EnumSet.of(PeepholeRule.DEAD_A_LOAD));
+        assertEquals(expected, optimizer.optimize(asm));
+    }
+}
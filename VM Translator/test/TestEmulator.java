@@ -0,0 +1,52 @@
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Assembles code and runs it on the Hack emulator for tests, with given initial RAM
+ */
+class TestEmulator {
+
+    /**
+     * Returns an emulator loaded with given assembly code and initial RAM, not run yet
+     *
+     * @param asm assembly code, each element may contain several lines
+     * @param ram initial values by RAM address
+     * @return the loaded emulator
+     */
+    static HackEmulator load(List<String> asm, Map<Integer, Integer> ram) {
+        HackEmulator emulator = new HackEmulator(HackAssembler.assemble(asm));
+        ram.forEach(emulator::setRAM);
+        return emulator;
+    }
+
+    /**
+     * Returns an emulator which ran given assembly code from given initial RAM for at most given cycles
+     *
+     * @param asm
+     * @param ram       initial values by RAM address
+     * @param maxCycles
+     * @return the emulator after the run
+     */
+    static HackEmulator run(List<String> asm, Map<Integer, Integer> ram, long maxCycles) {
+        HackEmulator emulator = load(asm, ram);
+        emulator.run(maxCycles);
+        return emulator;
+    }
+
+    /**
+     * Returns an emulator which ran given assembly code from given initial RAM, asserting it halted
+     * within given cycles
+     *
+     * @param asm
+     * @param ram       initial values by RAM address
+     * @param maxCycles
+     * @return the halted emulator
+     */
+    static HackEmulator runToHalt(List<String> asm, Map<Integer, Integer> ram, long maxCycles) {
+        HackEmulator emulator = load(asm, ram);
+        assertTrue(emulator.run(maxCycles));
+        return emulator;
+    }
+}
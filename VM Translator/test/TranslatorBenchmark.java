@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Represents a benchmark of the translator hot paths: lexing, parsing, assembly emitters and the whole
+ * translation, with throughput, allocated bytes per operation and scaling across threads.
+ * Each benchmark is warmed up before it is measured.
+ * Allocated bytes are those of the calling thread, so they are shown only for operations running on it,
+ * not for the whole translation whose files are translated by a fork/join pool.
+ * Scaling is measured by running the whole translation in fork/join pools of given parallelism.
+ * <p>
+ * Usage: java TranslatorBenchmark [--threads=1,2,4] [--files=N] [--time=MS] [directory]
+ * where directory contains the VM files of the small program, FibonacciElement by default.
+ * The large program is generated by VMWorkloadGenerator with given number of files.
+ */
+public class TranslatorBenchmark {
+    private static final int warmupIterations = 3;
+    private static final int measurementIterations = 5;
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Path.of("FibonacciElement");
+        List<Integer> threadCounts = List.of(1, 2, 4);
+        int filesCount = 100;
+        long iterationMillis = 500;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threadCounts = new ArrayList<>();
+                for (String threadCount : arg.substring("--threads=".length()).split(",")) {
+                    threadCounts.add(Integer.parseInt(threadCount));
+                }
+            } else if (arg.startsWith("--files=")) {
+                filesCount = Integer.parseInt(arg.substring("--files=".length()));
+            } else if (arg.startsWith("--time=")) {
+                iterationMillis = Long.parseLong(arg.substring("--time=".length()));
+            } else {
+                directory = Path.of(arg);
+            }
+        }
+        Map<String, List<String>> smallProgram = readLines(directory);
+        VMWorkloadGenerator generator = new VMWorkloadGenerator();
+        generator.setFilesCount(filesCount);
+        generator.setFunctionsPerFile(20);
+        generator.setCommandsPerFunction(100);
+        Map<String, List<String>> largeProgram = generator.generate();
+        List<String> smallLines = concat(smallProgram);
+        List<String> largeLines = concat(largeProgram);
+        System.out.println("Small program: " + smallLines.size() + " lines, large program: "
+                + largeLines.size() + " lines, " + size(largeLines) / 1024 + " KB");
+        System.out.println();
+        System.out.printf("%-40s %14s %14s%n", "Benchmark", "ops/s", "bytes/op");
+
+        long millis = iterationMillis;
+        benchmark("VMParser.parseCommands small", millis, () -> VMParser.parseCommands(smallLines));
+        benchmark("VMParser.parseCommands large", millis, () -> VMParser.parseCommands(largeLines));
+        ByteBuffer largeBytes = ByteBuffer.wrap(String.join("\n", largeLines).getBytes(StandardCharsets.UTF_8));
+        benchmark("VMParser.parseCommands bytes large", millis, () -> VMParser.parseCommands(largeBytes));
+        benchmark("VMParser.parse small", millis, () -> VMParser.parse("Main", smallLines));
+        benchmark("VMParser.parse large", millis, () -> VMParser.parse("Main", largeLines));
+        benchmark("ASMWriter.pushLocal", millis, () -> ASMWriter.pushLocal(3));
+        benchmark("ASMWriter.popThat", millis, () -> ASMWriter.popThat(2));
+        benchmark("ASMWriter.add", millis, ASMWriter::add);
+        benchmark("ASMWriter.eq", millis, () -> ASMWriter.eq("Main.main$cmp.1"));
+        benchmark("ASMWriter.call", millis, () -> ASMWriter.call("Main.fibonacci", 1, "Main.main$ret.1"));
+        benchmark("ASMWriter.ret", millis, ASMWriter::ret);
+        benchmark("VMProgram.toASM small", millis, () -> VMProgram.toASM(smallProgram), false);
+        benchmark("VMProgram.toASM large", millis, () -> VMProgram.toASM(largeProgram), false);
+
+        System.out.println();
+        System.out.printf("%-40s %14s %14s%n", "VMProgram.toASM large", "parallelism", "ops/s");
+        for (int threadCount : threadCounts) {
+            double throughput = throughput(threadCount, millis, () -> VMProgram.toASM(largeProgram));
+            System.out.printf("%-40s %14d %14.1f%n", "", threadCount, throughput);
+        }
+    }
+
+    /**
+     * Warms up and measures given operation running on the calling thread, then prints its throughput
+     * and allocated bytes per operation
+     *
+     * @param name
+     * @param iterationMillis
+     * @param operation
+     */
+    private static void benchmark(String name, long iterationMillis, Supplier<Object> operation) {
+        benchmark(name, iterationMillis, operation, true);
+    }
+
+    /**
+     * Warms up and measures given operation, then prints its throughput and, if it runs on the calling thread,
+     * its allocated bytes per operation
+     *
+     * @param name
+     * @param iterationMillis
+     * @param operation
+     * @param sequential      true if the operation runs on the calling thread only
+     */
+    private static void benchmark(String name, long iterationMillis, Supplier<Object> operation, boolean sequential) {
+        for (int i = 0; i < warmupIterations; i++) {
+            run(iterationMillis, operation);
+        }
+        long operations = 0;
+        long nanos = 0;
+        long allocatedBytes = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            operations += run(iterationMillis, operation);
+            nanos += System.nanoTime() - start;
+            allocatedBytes += allocatedBytes() - allocatedBefore;
+        }
+        String bytesPerOperation = sequential ? String.valueOf(allocatedBytes / operations) : "n/a";
+        System.out.printf("%-40s %14.1f %14s%n", name, operations * 1e9 / nanos, bytesPerOperation);
+    }
+
+    /**
+     * Runs given operation in a fork/join pool of given parallelism for given time and returns its throughput.
+     * The parallel streams of the operation run in the pool of the task calling them, so the operation
+     * is spread over given number of threads instead of the common pool.
+     *
+     * @param parallelism
+     * @param iterationMillis
+     * @param operation
+     * @return operations per second
+     * @throws Exception
+     */
+    private static double throughput(int parallelism, long iterationMillis, Supplier<Object> operation) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            double result = 0;
+            for (int i = 0; i < warmupIterations + measurementIterations; i++) {
+                long start = System.nanoTime();
+                long operations = pool.submit(() -> run(iterationMillis, operation)).get();
+                if (i >= warmupIterations) {
+                    result += operations * 1e9 / (System.nanoTime() - start) / measurementIterations;
+                }
+            }
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs given operation repeatedly for given time and returns the number of runs.
+     * Results are consumed, so that they aren't optimized away.
+     *
+     * @param iterationMillis
+     * @param operation
+     * @return the number of runs
+     */
+    private static long run(long iterationMillis, Supplier<Object> operation) {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+        long result = 0;
+        int consumed = 0;
+        do {
+            consumed ^= System.identityHashCode(operation.get());
+            result++;
+        } while (System.nanoTime() < deadline);
+        sink ^= consumed;
+        return result;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread
+     *
+     * @return the bytes allocated so far by the current thread
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Reads the lines of the VM files of given directory
+     *
+     * @param directory
+     * @return map of file name and lines
+     * @throws IOException
+     */
+    private static Map<String, List<String>> readLines(Path directory) throws IOException {
+        Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, Path> vmFile : VMTranslator.listVMFiles(directory).entrySet()) {
+            result.put(vmFile.getKey(), Files.readAllLines(vmFile.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the lines of all given files
+     *
+     * @param vmFiles
+     * @return the lines of all given files
+     */
+    private static List<String> concat(Map<String, List<String>> vmFiles) {
+        List<String> result = new ArrayList<>();
+        vmFiles.values().forEach(result::addAll);
+        return result;
+    }
+
+    /**
+     * Returns the number of characters of given lines, including line separators
+     *
+     * @param lines
+     * @return the number of characters of given lines
+     */
+    private static long size(List<String> lines) {
+        return lines.stream().mapToLong(line -> line.length() + 1).sum();
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VMConstantFolderTest {
+
+    @Test
+    public void testConstantExpressionsFolded() {
+        List<VMCommand> commands = VMParser.parseCommands(List.of(
+                "push constant 3",
+                "push constant 4",
+                "add",
+                "push local 0",
+                "push constant 0",
+                "not",
+                "label LOOP",
+                "push constant 32767",
+                "push constant 1",
+                "add",
+                "neg"
+        ));
+        List<VMCommand> expected = VMParser.parseCommands(List.of(
+                "push constant 7",
+                "push local 0",
+                "push constant -1",
+                "label LOOP",
+                "push constant -32768"
+        ));
+        assertEquals(expected, VMConstantFolder.fold(commands));
+    }
+
+    @Test
+    public void testComparisonsFollowGeneratedCode() {
+        assertEquals(-1, VMConstantFolder.evaluate(VMOpcode.EQ, 5, 5));
+        assertEquals(0, VMConstantFolder.evaluate(VMOpcode.GT, 5, 5));
+        assertEquals(-1, VMConstantFolder.evaluate(VMOpcode.LT, -3, 2));
+        // 20000 - (-20000) overflows to a negative difference, as at run time
+        assertEquals(-1, VMConstantFolder.evaluate(VMOpcode.LT, 20000, -20000));
+        assertEquals(-32768, VMConstantFolder.evaluate(VMOpcode.SUB, 0, -32768));
+    }
+
+    @Test
+    public void testFoldedProgramComputesSameStack() {
+        List<String> vmLines = List.of(
+                "push constant 17", "push constant 17", "eq",
+                "push constant 892", "push constant 891", "lt",
+                "push constant 32767", "push constant 32766", "gt",
+                "push constant 57", "push constant 31", "push constant 53", "add",
+                "push constant 112", "sub", "neg", "and",
+                "push constant 82", "or", "not",
+                "push constant 0", "push constant 1", "neg"
+        );
+        TranslatorOptions folding = new TranslatorOptions();
+        folding.setFoldingConstants(true);
+        HackEmulator expected = TestEmulator.runToHalt(VMProgram.toASM(Map.of("Stack", vmLines)), Map.of(0, 256), 10000);
+        HackEmulator actual = TestEmulator.runToHalt(VMProgram.toASM(Map.of("Stack", vmLines), folding), Map.of(0, 256), 10000);
+        assertEquals(expected.getRAM(0), actual.getRAM(0));
+        for (int address = 256; address < expected.getRAM(0); address++) {
+            assertEquals(expected.getRAM(address), actual.getRAM(address));
+        }
+        assertTrue(actual.getCycles() < expected.getCycles());
+    }
+}
@@ -0,0 +1,55 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VMFileReaderTest {
+
+    @Test
+    public void testSmallFile() throws IOException {
+        Path file = Files.createTempFile("small", ".vm");
+        Files.writeString(file, "push constant 1\r\npush constant 2\rpush constant 3\n\nadd // é\n");
+        ByteBuffer content = VMFileReader.read(file);
+        assertFalse(content.isDirect());
+        assertEquals(ByteBuffer.wrap(Files.readAllBytes(file)), content);
+        Files.writeString(file, "");
+        assertEquals(0, VMFileReader.read(file).remaining());
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        Path file = Files.createTempFile("large", ".vm");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            lines.add("push constant " + i);
+        }
+        Files.write(file, lines, StandardCharsets.US_ASCII);
+        ByteBuffer content = VMFileReader.read(file);
+        assertTrue(content.isDirect());
+        assertEquals(ByteBuffer.wrap(Files.readAllBytes(file)), content);
+        assertEquals(VMParser.parseCommands(lines), VMParser.parseCommands(content));
+    }
+
+    @Test
+    public void testConcurrentReads() throws IOException {
+        Path dir = Files.createTempDirectory("program");
+        Map<String, List<VMCommand>> expected = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            List<String> lines = List.of("function F" + i + ".f 0", "push constant " + i, "return");
+            Files.write(dir.resolve("F" + i + ".vm"), lines);
+            expected.put("F" + i, VMParser.parseCommands(lines));
+        }
+        assertEquals(expected, VMProgram.parseFiles(VMTranslator.readVMFiles(dir)));
+    }
+}
@@ -0,0 +1,135 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class VMInlinerTest {
+
+    @Test
+    public void testLeafFunctionsInlined() {
+        Map<String, List<String>> vmFiles = Map.of(
+                "Main", List.of(
+                        "function Main.main 1",
+                        "push local 0",
+                        "push constant 3",
+                        "call Point.new 2",
+                        "call Point.getX 1",
+                        "return"
+                ),
+                "Point", List.of(
+                        "function Point.new 1",
+                        "push argument 1",
+                        "pop local 0",
+                        "push argument 0",
+                        "push local 0",
+                        "add",
+                        "return",
+                        "function Point.getX 0",
+                        "push argument 0",
+                        "pop pointer 0",
+                        "push this 0",
+                        "return"
+                )
+        );
+        VMInliner inliner = new VMInliner(VMInliner.defaultBudget);
+        Map<String, List<String>> inlined = VMProgram.toVMLines(inliner.inline(VMProgram.parseAll(vmFiles)));
+        assertEquals(2, inliner.getInlinedCalls());
+        assertEquals(List.of(
+                "function Main.main 4",
+                "push local 0",
+                "push constant 3",
+                "pop local 2",
+                "pop local 1",
+                "push constant 0",
+                "pop local 3",
+                "push local 2",
+                "pop local 3",
+                "push local 1",
+                "push local 3",
+                "add",
+                "pop local 1",
+                "push pointer 0",
+                "pop local 2",
+                "push local 1",
+                "pop pointer 0",
+                "push this 0",
+                "push local 2",
+                "pop pointer 0",
+                "return"
+        ), inlined.get("Main"));
+        assertEquals(vmFiles.get("Point"), inlined.get("Point"));
+    }
+
+    @Test
+    public void testOnlySmallStraightLineFunctionsInlined() {
+        Map<String, List<String>> vmFiles = Map.of(
+                "Main", List.of(
+                        "function Main.main 0",
+                        "call Main.loop 0",
+                        "call Main.large 0",
+                        "call Main.recursive 0",
+                        "push constant 1",
+                        "call Main.missingArgument 0",
+                        "call Main.twoValues 0",
+                        "add",
+                        "call Main.underflow 0",
+                        "return",
+                        "function Main.loop 0",
+                        "label LOOP",
+                        "goto LOOP",
+                        "return",
+                        "function Main.large 0",
+                        "push constant 1",
+                        "push constant 2",
+                        "push constant 3",
+                        "add",
+                        "add",
+                        "return",
+                        "function Main.recursive 0",
+                        "call Main.recursive 0",
+                        "return",
+                        "function Main.missingArgument 0",
+                        "push argument 1",
+                        "return",
+                        "function Main.twoValues 0",
+                        "push constant 1",
+                        "push constant 2",
+                        "return",
+                        "function Main.underflow 0",
+                        "add",
+                        "return"
+                )
+        );
+        VMInliner inliner = new VMInliner(4);
+        Map<String, List<String>> inlined = VMProgram.toVMLines(inliner.inline(VMProgram.parseAll(vmFiles)));
+        assertEquals(0, inliner.getInlinedCalls());
+        assertEquals(vmFiles.get("Main"), inlined.get("Main"));
+    }
+
+    @Test
+    public void testBodyLeavingTwoValuesNotInlined() {
+        Map<String, List<String>> vmFiles = Map.of(
+                "Sys", List.of(
+                        "function Sys.init 0",
+                        "push constant 10",
+                        "call Sys.f 0",
+                        "add",
+                        "pop temp 0",
+                        "label END",
+                        "goto END",
+                        "function Sys.f 0",
+                        "push constant 1",
+                        "push constant 2",
+                        "return"
+                ),
+                "Main", List.of()
+        );
+        VMInliner inliner = new VMInliner(VMInliner.defaultBudget);
+        Map<String, List<String>> inlined = VMProgram.toVMLines(inliner.inline(VMProgram.parseAll(vmFiles)));
+        assertEquals(0, inliner.getInlinedCalls());
+        HackEmulator emulator = TestEmulator.runToHalt(VMProgram.toASM(inlined), Map.of(), 10000);
+        assertEquals(12, emulator.getRAM(5));
+    }
+}
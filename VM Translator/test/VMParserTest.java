@@ -0,0 +1,190 @@
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VMParserTest {
+    private static final Map<Integer, Integer> segmentPointers = Map.of(0, 256, 1, 300, 2, 400, 3, 3000);
+
+    @Test
+    public void testParsePush() {
+        VMCommand command = VMParser.parseCommand("push local 12");
+        assertEquals(VMOpcode.PUSH, command.getOpcode());
+        assertEquals(VMSegment.LOCAL, command.getSegment());
+        assertEquals(12, command.getOperand());
+        assertEquals(VMCommand.NO_SYMBOL, command.getSymbol());
+    }
+
+    @Test
+    public void testParseCall() {
+        VMCommand command = VMParser.parseCommand("call Main.fibonacci 1");
+        assertEquals(VMOpcode.CALL, command.getOpcode());
+        assertEquals(1, command.getOperand());
+        assertEquals("Main.fibonacci", command.getSymbolName());
+        assertEquals(command.getSymbols().intern("Main.fibonacci"), command.getSymbol());
+    }
+
+    @Test
+    public void testSymbolTables() {
+        VMSymbols symbols = new VMSymbols();
+        List<VMCommand> commands = VMParser.parseCommands(List.of("label A", "label B", "goto A"), symbols);
+        assertEquals(2, symbols.size());
+        assertEquals(commands.get(0).getSymbol(), commands.get(2).getSymbol());
+        VMCommand other = VMParser.parseCommands(List.of("label B"), new VMSymbols()).get(0);
+        assertEquals(0, other.getSymbol());
+        assertEquals(1, commands.get(1).getSymbol());
+        assertEquals(commands.get(1), other);
+        assertEquals(commands.get(1).hashCode(), other.hashCode());
+        assertNotEquals(commands.get(0), other);
+    }
+
+    @Test
+    public void testParseIfGoto() {
+        VMCommand command = VMParser.parseCommand("if-goto LOOP");
+        assertEquals(VMOpcode.IF_GOTO, command.getOpcode());
+        assertEquals("LOOP", command.getSymbolName());
+    }
+
+    @Test
+    public void testCommandToString() {
+        List<String> vmLines = List.of("push constant 7", "pop that 2", "function Foo.bar 3", "label END", "not", "return");
+        for (String vmLine : vmLines) {
+            assertEquals(vmLine, VMParser.parseCommand(vmLine).toString());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCommand() {
+        VMParser.parseCommand("mul");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPopConstant() {
+        VMParser.parseCommand("pop constant 1");
+    }
+
+    @Test
+    public void testWhitespaceAndComments() {
+        List<VMCommand> commands = VMParser.parseCommands(List.of(
+                "// full-line comment",
+                "",
+                " \t ",
+                "\tpush   local\t12  // inline comment",
+                "call Main.fibonacci 1//no space",
+                "label A/B"));
+        assertEquals(3, commands.size());
+        assertEquals("push local 12", commands.get(0).toString());
+        assertEquals("call Main.fibonacci 1", commands.get(1).toString());
+        assertEquals("label A/B", commands.get(2).toString());
+    }
+
+    @Test
+    public void testParseBytes() {
+        String vmCode = "// é comment\r\n\r\npush constant 1\rpush\tconstant 2 // sum\n\nadd\r\nlabel É/1\n  \t\ngoto É/1";
+        ByteBuffer bytes = ByteBuffer.wrap(vmCode.getBytes(StandardCharsets.UTF_8));
+        List<String> vmLines = List.of("push constant 1", "push constant 2", "add", "label É/1", "goto É/1");
+        List<VMCommand> commands = VMParser.parseCommands(bytes);
+        assertEquals(VMParser.parseCommands(vmLines), commands);
+        assertEquals(0, bytes.position());
+        List<String> asm = new ArrayList<>();
+        VMParser.translate("Main", bytes, asm::add, TranslatorOptions.defaults());
+        assertEquals(VMParser.parse("Main", vmLines), asm);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongCommandInBytes() {
+        VMParser.parseCommands(ByteBuffer.wrap("push constant 1\npush constant 1 2\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSingleSlashNotComment() {
+        VMParser.parseCommand("push constant 1 / 2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingArgument() {
+        VMParser.parseCommand("push constant");
+    }
+
+    @Test
+    public void testStackTopInDKeepsSemantics() {
+        List<String> vmLines = List.of(
+                "push constant 10",
+                "pop local 0",
+                "push constant 21",
+                "push constant 22",
+                "pop argument 2",
+                "pop argument 1",
+                "push constant 36",
+                "pop this 6",
+                "push local 0",
+                "push argument 1",
+                "sub",
+                "push this 6",
+                "push this 6",
+                "add",
+                "lt",
+                "not",
+                "if-goto SKIP",
+                "push constant 5",
+                "pop temp 1",
+                "label SKIP",
+                "push argument 2",
+                "neg",
+                "push temp 1"
+        );
+        TranslatorOptions caching = new TranslatorOptions();
+        caching.setCachingStackTop(true);
+        HackEmulator expected = TestEmulator.runToHalt(VMParser.parse("Basic", vmLines), segmentPointers, 10000);
+        HackEmulator actual = TestEmulator.runToHalt(VMParser.parse("Basic", vmLines, caching), segmentPointers, 10000);
+        // pointers, temp segment, stack, local, argument and this segments
+        int[][] ranges = {{0, 12}, {256, expected.getRAM(0) - 1}, {300, 310}, {400, 410}, {3000, 3010}};
+        for (int[] range : ranges) {
+            for (int address = range[0]; address <= range[1]; address++) {
+                assertEquals("RAM[" + address + "]", expected.getRAM(address), actual.getRAM(address));
+            }
+        }
+        assertTrue(actual.getCycles() < expected.getCycles());
+    }
+
+    @Test
+    public void testTailCallReusesFrame() {
+        List<String> vmLines = List.of(
+                "function Main.main 0",
+                "push constant 30",
+                "push constant 0",
+                "call Main.sum 2",
+                "label END",
+                "goto END",
+                "function Main.sum 0",
+                "push argument 0",
+                "if-goto NEXT",
+                "push argument 1",
+                "return",
+                "label NEXT",
+                "push argument 0",
+                "push constant 1",
+                "sub",
+                "push argument 1",
+                "push argument 0",
+                "add",
+                "call Main.sum 2",
+                "return"
+        );
+        TranslatorOptions tailCalls = new TranslatorOptions();
+        tailCalls.setTailCalls(true);
+        HackEmulator expected = TestEmulator.runToHalt(VMParser.parse("Main", vmLines), segmentPointers, 10000);
+        HackEmulator actual = TestEmulator.runToHalt(VMParser.parse("Main", vmLines, tailCalls), segmentPointers, 10000);
+        assertEquals(465, expected.getRAM(256));
+        assertEquals(465, actual.getRAM(256));
+        assertEquals(257, actual.getRAM(0));
+        assertTrue(actual.getCycles() < expected.getCycles());
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VMProgramTest {
+
+    @Test
+    public void testFilesJoinedInNameOrder() {
+        Map<String, List<String>> vmFiles = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            String fileName = "File" + i;
+            vmFiles.put(fileName, List.of(
+                    "function " + fileName + ".run 0",
+                    "push static 0",
+                    "call Sys.halt 1",
+                    "return"
+            ));
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add(VMProgram.sectionCommentPrefix + "bootstrap" + System.lineSeparator() + ASMWriter.bootstrap());
+        vmFiles.keySet().stream().sorted().forEach(fileName -> {
+            expected.add(VMProgram.sectionCommentPrefix + "file " + fileName + ".vm");
+            expected.addAll(VMParser.parse(fileName, vmFiles.get(fileName)));
+        });
+        assertEquals(expected, VMProgram.toASM(vmFiles));
+        assertEquals(expected, VMProgram.toASM(vmFiles));
+    }
+
+    @Test
+    public void testReturnLabelsUniquePerFunction() {
+        List<String> vmLines = List.of("function Foo.bar 0", "call Foo.baz 0", "call Foo.baz 0");
+        String asm = String.join(System.lineSeparator(), VMParser.parse("Foo", vmLines));
+        assertTrue(asm.contains("(Foo.bar$ret.1)"));
+        assertTrue(asm.contains("(Foo.bar$ret.2)"));
+    }
+
+    @Test
+    public void testComparisonLabelsReproducible() {
+        List<String> vmLines = List.of("function Foo.bar 0", "eq", "lt", "gt");
+        List<String> asm = VMParser.parse("Foo", vmLines);
+        assertEquals(asm, VMParser.parse("Foo", vmLines));
+        String joined = String.join(System.lineSeparator(), asm);
+        assertTrue(joined.contains("(Foo.bar$cmp.1$TRUE)"));
+        assertTrue(joined.contains("(Foo.bar$cmp.3$END)"));
+    }
+}
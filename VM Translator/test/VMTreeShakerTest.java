@@ -0,0 +1,65 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class VMTreeShakerTest {
+
+    @Test
+    public void testUnreachableFunctionsStripped() {
+        Map<String, List<String>> vmFiles = Map.of(
+                "Sys", List.of(
+                        "function Sys.init 0",
+                        "call Main.main 0",
+                        "label END",
+                        "goto END"
+                ),
+                "Main", List.of(
+                        "function Main.main 0",
+                        "push constant 2",
+                        "call Math.double 1",
+                        "return",
+                        "function Main.unused 0",
+                        "call Math.square 1",
+                        "return"
+                ),
+                "Math", List.of(
+                        "function Math.double 0",
+                        "push argument 0",
+                        "push argument 0",
+                        "add",
+                        "return",
+                        "function Math.square 0",
+                        "push constant 0",
+                        "return"
+                )
+        );
+        VMTreeShaker treeShaker = new VMTreeShaker(VMProgram.parseAll(vmFiles));
+        assertEquals(List.of("Main.unused", "Math.square"), treeShaker.getStrippedFunctions());
+        Map<String, List<String>> reachable = VMProgram.toVMLines(treeShaker.getReachableProgram());
+        assertEquals(vmFiles.get("Sys"), reachable.get("Sys"));
+        assertEquals(vmFiles.get("Main").subList(0, 4), reachable.get("Main"));
+        assertEquals(vmFiles.get("Math").subList(0, 5), reachable.get("Math"));
+    }
+
+    @Test
+    public void testSingleFileKeepsFirstFunctionAndFallThrough() {
+        List<String> vmLines = List.of(
+                "function Main.main 0",
+                "call Main.helper 0",
+                "label LOOP",
+                "goto LOOP",
+                "function Main.helper 0",
+                "push constant 1",
+                "function Main.next 0",
+                "return",
+                "function Main.dead 0",
+                "return"
+        );
+        VMTreeShaker treeShaker = new VMTreeShaker(VMProgram.parseAll(Map.of("Main", vmLines)));
+        assertEquals(List.of("Main.dead"), treeShaker.getStrippedFunctions());
+        assertEquals(vmLines.subList(0, 8), VMProgram.toVMLines(treeShaker.getReachableProgram()).get("Main"));
+    }
+}
@@ -0,0 +1,61 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VMWatcherTest {
+
+    @Test
+    public void testChangedFileRetranslated() throws IOException {
+        Path dir = Files.createTempDirectory("watched");
+        Path sysFile = dir.resolve("Sys.vm");
+        Path mainFile = dir.resolve("Main.vm");
+        Path outputFile = dir.resolve("out.asm");
+        Files.write(sysFile, List.of("function Sys.init 0", "call Main.main 0", "label LOOP", "goto LOOP"));
+        Files.write(mainFile, List.of("function Main.main 0", "push constant 1", "return"));
+        VMWatcher watcher = new VMWatcher(dir, outputFile, TranslatorOptions.defaults());
+        watcher.translateAll();
+
+        Files.write(mainFile, List.of("function Main.main 0", "push constant 2", "return"));
+        assertTrue(watcher.fileChanged(mainFile));
+        assertFalse(watcher.fileChanged(sysFile));
+        watcher.writeOutput();
+        String expected = String.join("\n", VMProgram.translateProgram(
+                VMProgram.parseFiles(VMTranslator.readVMFiles(dir)), TranslatorOptions.defaults(), null));
+        assertEquals(expected, Files.readString(outputFile));
+    }
+
+    @Test
+    public void testWrongCodeKeepsTranslation() throws IOException {
+        Path dir = Files.createTempDirectory("watched");
+        Path mainFile = dir.resolve("Main.vm");
+        Files.write(mainFile, List.of("push constant 1"));
+        VMWatcher watcher = new VMWatcher(mainFile, dir.resolve("Main.asm"), TranslatorOptions.defaults());
+        watcher.translateAll();
+        Files.write(mainFile, List.of("push nowhere 1"));
+        assertFalse(watcher.fileChanged(mainFile));
+        assertTrue(watcher.fileDeleted(mainFile));
+    }
+
+    @Test
+    public void testTranslateAllDropsUnusedSymbols() throws IOException {
+        Path dir = Files.createTempDirectory("watched");
+        Path mainFile = dir.resolve("Main.vm");
+        Files.write(mainFile, List.of("function Main.main 0", "label LOOP", "goto LOOP"));
+        VMWatcher watcher = new VMWatcher(mainFile, dir.resolve("Main.asm"), TranslatorOptions.defaults());
+        watcher.translateAll();
+        Files.write(mainFile, List.of("function Main.main 0", "label AGAIN", "goto AGAIN"));
+        assertTrue(watcher.fileChanged(mainFile));
+        assertEquals(3, watcher.getSymbols().size());
+        VMCommand label = VMParser.parseCommands(List.of("label AGAIN"), watcher.getSymbols()).get(0);
+        watcher.translateAll();
+        assertEquals(2, watcher.getSymbols().size());
+        assertEquals("AGAIN", label.getSymbolName());
+    }
+}
@@ -0,0 +1,37 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class VMWorkloadGeneratorTest {
+
+    @Test
+    public void testReproducible() {
+        VMWorkloadGenerator generator = new VMWorkloadGenerator();
+        generator.setSeed(42);
+        Map<String, List<String>> program = generator.generate();
+        assertEquals(program, generator.generate());
+        generator.setSeed(43);
+        assertNotEquals(program, generator.generate());
+    }
+
+    @Test
+    public void testProgramRunsToHalt() {
+        VMWorkloadGenerator generator = new VMWorkloadGenerator();
+        generator.setSeed(7);
+        generator.setFilesCount(3);
+        generator.setFunctionsPerFile(4);
+        generator.setCommandsPerFunction(30);
+        generator.setCallDepth(2);
+        generator.setLabelDensity(0.2);
+        Map<String, List<String>> program = generator.generate();
+        assertEquals(4, program.size());
+        program.values().forEach(VMParser::parseCommands);
+        HackEmulator emulator = TestEmulator.runToHalt(VMProgram.toASM(program), Map.of(), 10_000_000);
+        // SP is left by the bootstrap call to Sys.init only, so every function kept the stack balanced
+        assertEquals(261, emulator.getRAM(0));
+    }
+}